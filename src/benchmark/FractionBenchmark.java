@@ -0,0 +1,185 @@
+package benchmark;
+
+import java.util.Random;
+
+import utilities.Fraction;
+
+/**
+ * Benchmark of Fraction arithmetic against the int-only Fraction it replaced.
+ *
+ * Operands are the kind abc files give: note lengths and start times with
+ * small denominators, so this times the long fast path rather than the
+ * BigInteger fallback. For plus, times, gcd and comparison it reports
+ * nanoseconds and bytes allocated per operation for both classes. The old
+ * class had no compareTo, so its comparison is what callers did instead,
+ * subtracting and checking the sign.
+ *
+ * Usage: java benchmark.FractionBenchmark [milliseconds per case]
+ *
+ * @author woursler
+ * @version beta
+ */
+public class FractionBenchmark {
+
+	private static final int OPERANDS = 1024;
+
+	private final Harness harness;
+	private final Fraction[] fractions = new Fraction[OPERANDS];
+	private final LegacyFraction[] legacy = new LegacyFraction[OPERANDS];
+
+	private FractionBenchmark(long period) {
+		this.harness = new Harness(period);
+		Random random = new Random(42);
+		for (int i = 0; i < OPERANDS; i++) {
+			int denominator = 1 << random.nextInt(7);
+			if (random.nextInt(4) == 0)
+				denominator *= 3;
+			int numerator = random.nextInt(8 * denominator) + 1;
+			this.fractions[i] = new Fraction(numerator, denominator);
+			this.legacy[i] = new LegacyFraction(numerator, denominator);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		long period = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		FractionBenchmark benchmark = new FractionBenchmark(period);
+
+		System.out.println(String.format("%-12s %12s %12s %12s %12s",
+				"operation", "ns/op", "legacy ns", "bytes/op", "legacy bytes"));
+		final Fraction[] f = benchmark.fractions;
+		final LegacyFraction[] l = benchmark.legacy;
+		benchmark.report("plus", new Harness.Operation() {
+			public long run(int i) {
+				return f[i].plus(f[i + 1]).denominator;
+			}
+		}, new Harness.Operation() {
+			public long run(int i) {
+				return l[i].plus(l[i + 1]).denominator;
+			}
+		});
+		benchmark.report("times", new Harness.Operation() {
+			public long run(int i) {
+				return f[i].times(f[i + 1]).denominator;
+			}
+		}, new Harness.Operation() {
+			public long run(int i) {
+				return l[i].times(l[i + 1]).denominator;
+			}
+		});
+		benchmark.report("gcd", new Harness.Operation() {
+			public long run(int i) {
+				return Fraction.gcd(f[i], f[i + 1]).denominator;
+			}
+		}, new Harness.Operation() {
+			public long run(int i) {
+				return LegacyFraction.gcd(l[i], l[i + 1]).denominator;
+			}
+		});
+		benchmark.report("compare", new Harness.Operation() {
+			public long run(int i) {
+				return f[i].compareTo(f[i + 1]);
+			}
+		}, new Harness.Operation() {
+			public long run(int i) {
+				return l[i].minus(l[i + 1]).isPositive() ? 1 : 0;
+			}
+		});
+		if (Harness.sink == 42)
+			System.out.println();
+	}
+
+	/**
+	 * Reports current and old, each run on the operands at i and i + 1.
+	 */
+	private void report(String operation, Harness.Operation current,
+			Harness.Operation old) throws Exception {
+		this.harness.measure(current, OPERANDS - 1); // warm up
+		this.harness.measure(old, OPERANDS - 1);
+		double[] result = this.harness.measure(current, OPERANDS - 1);
+		double[] legacyResult = this.harness.measure(old, OPERANDS - 1);
+		System.out.println(String.format("%-12s %12.1f %12.1f %12s %12s",
+				operation, result[0], legacyResult[0], bytes(result[1]),
+				bytes(legacyResult[1])));
+	}
+
+	private static String bytes(double bytes) {
+		return bytes < 0 ? "n/a" : String.format("%.1f", bytes);
+	}
+
+	/**
+	 * Fraction as it was before it used longs, kept as the baseline. It
+	 * overflows silently.
+	 */
+	private static final class LegacyFraction {
+
+		final int numerator;
+		final int denominator;
+
+		static int gcd(int first, int second) {
+			if (first < 0 || second < 0) {
+				return gcd(Math.abs(first), Math.abs(second));
+			}
+			if (first > second) {
+				if (second == 0) {
+					return first;
+				}
+				return gcd(second, first % second);
+			} else {
+				if (first == 0) {
+					return second;
+				}
+				return gcd(first, second % first);
+			}
+		}
+
+		static LegacyFraction gcd(LegacyFraction first, LegacyFraction second) {
+			return new LegacyFraction(gcd(first.numerator * second.denominator,
+					second.numerator * first.denominator), first.denominator
+					* second.denominator);
+		}
+
+		LegacyFraction(int value) {
+			this.numerator = value;
+			this.denominator = 1;
+		}
+
+		LegacyFraction(int numerator, int denominator) {
+			if (denominator == 0) {
+				throw new IllegalArgumentException("Zero in denominator");
+			}
+			if (numerator == 0) {
+				this.numerator = 0;
+				this.denominator = 1;
+				return;
+			}
+			boolean isPositive = (numerator * denominator > 0);
+			numerator = Math.abs(numerator);
+			denominator = Math.abs(denominator);
+			int gcd = gcd(numerator, denominator);
+			if (isPositive)
+				this.numerator = numerator / gcd;
+			else
+				this.numerator = -1 * numerator / gcd;
+			this.denominator = denominator / gcd;
+		}
+
+		boolean isPositive() {
+			return (this.numerator > 0);
+		}
+
+		LegacyFraction plus(LegacyFraction other) {
+			return new LegacyFraction(this.numerator * other.denominator
+					+ other.numerator * this.denominator, this.denominator
+					* other.denominator);
+		}
+
+		LegacyFraction minus(LegacyFraction other) {
+			return this.plus(other.times(new LegacyFraction(-1)));
+		}
+
+		LegacyFraction times(LegacyFraction other) {
+			return new LegacyFraction(this.numerator * other.numerator,
+					this.denominator * other.denominator);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Times operations for the benchmarks: each is run over and over for a fixed
+ * period, and its time and allocation are divided by the number of runs.
+ *
+ * @author woursler
+ * @version beta
+ */
+final class Harness {
+
+	/**
+	 * Something for each benchmarked operation to be fed into, so it is not
+	 * optimized away. Benchmarks should print something depending on it.
+	 */
+	static long sink;
+
+	/**
+	 * An operation to be timed, given the index of its run in a round.
+	 */
+	interface Operation {
+		long run(int i) throws Exception;
+	}
+
+	private final long period;
+
+	/**
+	 * @param period
+	 *            milliseconds to run each operation for.
+	 */
+	Harness(long period) {
+		this.period = period;
+	}
+
+	/**
+	 * Runs op over and over for the period, in rounds of count runs, on 0 to
+	 * count - 1.
+	 *
+	 * @return nanoseconds per operation, and bytes allocated per operation
+	 *         or -1 if that is not available.
+	 */
+	double[] measure(Operation op, int count) throws Exception {
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long deadline = start + this.period * 1000000L;
+		long operations = 0;
+		long now;
+		do {
+			for (int i = 0; i < count; i++)
+				sink += op.run(i);
+			operations += count;
+			now = System.nanoTime();
+		} while (now < deadline);
+		long bytesAfter = allocatedBytes();
+		double bytes = bytesBefore < 0 ? -1 : (double) (bytesAfter - bytesBefore)
+				/ operations;
+		return new double[] { (double) (now - start) / operations, bytes };
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far, or -1 if the JVM does not
+	 *         say.
+	 */
+	static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
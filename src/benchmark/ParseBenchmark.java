@@ -0,0 +1,152 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lexer.Lexer;
+import lexer.Token;
+import player.Parser;
+
+/**
+ * Throughput benchmark for lexing and parsing abc files.
+ *
+ * Measures Lexer.lex, Parser.parseTokens on pre-lexed tokens, and
+ * Parser.parse end to end, over every file in sample_abc/ and over synthetic
+ * pieces of 10, 100 and 1000 times a base number of measures. For each it
+ * reports operations per second, nanoseconds per token and bytes allocated
+ * per operation.
+ *
+ * Each case is warmed up before it is measured, and a case is timed by
+ * running it repeatedly for a fixed period, so results are comparable between
+ * runs on the same machine. Allocation is read from the JVM's per-thread
+ * counter where the JVM has one.
+ *
+ * Usage: java benchmark.ParseBenchmark [sample directory] [milliseconds per
+ * case]
+ *
+ * @author woursler
+ * @version beta
+ */
+public class ParseBenchmark {
+
+	private static final int BASE_MEASURES = 8;
+
+	private static final int[] SCALES = { 10, 100, 1000 };
+
+	/**
+	 * One bar of each kind of note element, so synthetic input exercises the
+	 * whole parser.
+	 */
+	private static final String[] BARS = { "A B c d|", "^F2 _B,2|",
+			"[C2E2G2] z2|", "(3abc (3def d2|", "|: G/A/B/c/ d2 :|", "C3/2 D/ E2|",
+			"=f e' d'2|", "(2AB (4cdec|" };
+
+	private final Lexer lexer = new Lexer(Parser.types);
+	private final Harness harness;
+
+	private ParseBenchmark(long period) {
+		this.harness = new Harness(period);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String directory = args.length > 0 ? args[0] : "sample_abc";
+		long period = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+		ParseBenchmark benchmark = new ParseBenchmark(period);
+
+		System.out.println(String.format("%-28s %-12s %12s %10s %14s",
+				"input", "operation", "ops/s", "ns/token", "bytes/op"));
+		File[] files = new File(directory).listFiles();
+		if (files == null)
+			throw new IOException("No such directory: " + directory);
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.getName().endsWith(".abc"))
+				benchmark.run(file.getName(), readFile(file));
+		}
+		for (int scale : SCALES) {
+			benchmark.run("synthetic x" + scale, synthetic(BASE_MEASURES
+					* scale));
+		}
+		if (Harness.sink == 42)
+			System.out.println();
+	}
+
+	/**
+	 * Benchmarks every operation on input, skipping those it fails on.
+	 */
+	private void run(String name, final String input) throws Exception {
+		final List<Token> tokens;
+		try {
+			tokens = this.lexer.lex(input);
+			Parser.parseTokens(tokens);
+		} catch (Exception e) {
+			System.out.println(String.format("%-28s skipped: %s", name, e));
+			return;
+		}
+		int count = tokens.size();
+
+		this.report(name, "lex", count, new Harness.Operation() {
+			public long run(int i) {
+				return lexer.lex(input).size();
+			}
+		});
+		this.report(name, "parseTokens", count, new Harness.Operation() {
+			public long run(int i) throws Exception {
+				return Parser.parseTokens(tokens).getVoices().size();
+			}
+		});
+		this.report(name, "parse", count, new Harness.Operation() {
+			public long run(int i) throws Exception {
+				return Parser.parse(input).getVoices().size();
+			}
+		});
+	}
+
+	private void report(String name, String operation, int tokens,
+			Harness.Operation op) throws Exception {
+		this.harness.measure(op, 1); // warm up
+		double[] result = this.harness.measure(op, 1);
+		double nanosPerOp = result[0];
+		System.out.println(String.format("%-28s %-12s %12.1f %10.1f %14s",
+				name, operation, 1e9 / nanosPerOp, nanosPerOp / tokens,
+				result[1] < 0 ? "n/a" : String.format("%.0f", result[1])));
+	}
+
+	/**
+	 * @return a valid single voice piece of the given number of measures.
+	 */
+	static String synthetic(int measures) {
+		StringBuilder piece = new StringBuilder(
+				"X:1\nT:Synthetic\nM:4/4\nL:1/8\nK:D\n");
+		List<String> line = new ArrayList<String>();
+		for (int i = 0; i < measures; i++) {
+			line.add(BARS[i % BARS.length]);
+			if (line.size() == 4 || i == measures - 1) {
+				for (String bar : line)
+					piece.append(bar).append(' ');
+				piece.append('\n');
+				line.clear();
+			}
+		}
+		return piece.toString();
+	}
+
+	private static String readFile(File file) throws IOException {
+		FileReader reader = new FileReader(file);
+		StringBuilder contents = new StringBuilder();
+		char[] buffer = new char[4096];
+		int read;
+		try {
+			while ((read = reader.read(buffer)) >= 0) {
+				contents.append(buffer, 0, read);
+			}
+		} finally {
+			reader.close();
+		}
+		return contents.toString();
+	}
+}
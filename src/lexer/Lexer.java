@@ -1,7 +1,9 @@
 package lexer;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 
 /**
@@ -17,15 +19,104 @@ import java.util.regex.Matcher;
  */
 public class Lexer {
 
-	private final List<TokenType> types;
+	/**
+	 * Characters below this value get their own entry in the dispatch table.
+	 * Anything else falls back to trying every TokenType.
+	 */
+	private static final int DISPATCH_SIZE = 128;
+
+	/**
+	 * Returned by match when the token cannot be decided without more input.
+	 */
+	static final int NEED_MORE_INPUT = -2;
+
+	/**
+	 * Tokens of at most this many characters are shared between occurrences.
+	 */
+	private static final int FLYWEIGHT_LENGTH = 2;
+
+	/**
+	 * Number of slots in the flyweight cache. Must be a power of two.
+	 */
+	private static final int FLYWEIGHT_CACHE_SIZE = 1024;
+
+	private final TokenType[] types;
+
+	/**
+	 * Type id of each TokenType. TokenTypes compare by reference.
+	 */
+	private final Map<TokenType, Integer> ids;
+
+	/**
+	 * Direct-mapped cache of short Tokens, shared by every lex. Tokens are
+	 * immutable, so threads racing on a slot at worst build a duplicate.
+	 */
+	private final Token[] flyweights;
+
+	/**
+	 * For each character c below DISPATCH_SIZE, the indices (in priority
+	 * order) of the TokenTypes whose pattern could possibly match a token
+	 * starting with c.
+	 */
+	private final int[][] dispatch;
 
+	/**
+	 * Indices of every TokenType, used for characters outside the table.
+	 */
+	private final int[] allTypes;
+
+	/**
+	 * Builds the lexer and compiles its first-character dispatch table. The
+	 * list is copied, so later changes to it do not affect this Lexer.
+	 * 
+	 * @param types
+	 *            the TokenTypes to recognize, in order of priority.
+	 */
 	public Lexer(List<TokenType> types) {
-		this.types = types;
+		this.types = types.toArray(new TokenType[types.size()]);
+		this.flyweights = new Token[FLYWEIGHT_CACHE_SIZE];
+
+		this.ids = new IdentityHashMap<TokenType, Integer>();
+		for (int i = this.types.length - 1; i >= 0; i--) {
+			this.ids.put(this.types[i], i);
+		}
+
+		this.allTypes = new int[this.types.length];
+		for (int i = 0; i < this.allTypes.length; i++) {
+			this.allTypes[i] = i;
+		}
+
+		this.dispatch = new int[DISPATCH_SIZE][];
+		int[] candidates = new int[this.types.length];
+		for (int c = 0; c < DISPATCH_SIZE; c++) {
+			String first = String.valueOf((char) c);
+			int count = 0;
+			for (int i = 0; i < this.types.length; i++) {
+				// If the pattern fails on c without ever asking for more
+				// input, no longer string starting with c can match it either.
+				Matcher matcher = this.types[i].pattern.matcher(first);
+				if (matcher.lookingAt() || matcher.hitEnd()) {
+					candidates[count++] = i;
+				}
+			}
+			this.dispatch[c] = new int[count];
+			System.arraycopy(candidates, 0, this.dispatch[c], 0, count);
+		}
 	}
 
 	/**
 	 * Lexes the passed string into Tokens.
 	 * 
+	 * The input is never copied piecewise: a single cursor is advanced over
+	 * it, and one Matcher per TokenType is reset onto the region starting at
+	 * the cursor, so lexing time grows linearly with the length of the input.
+	 * Only the TokenTypes that can start with the character under the cursor
+	 * are tried, still in priority order. The returned Tokens refer back to
+	 * the input rather than each holding a copy of their text.
+	 * 
+	 * Type ids, as used by TokenBuffer, are positions in the list of
+	 * TokenTypes this Lexer was built with.
+	 * 
 	 * @param input
 	 *            a string to be split into Tokens.
 	 * @return a List of Tokens.
@@ -33,31 +124,157 @@ public class Lexer {
 	 *             if something that does appear to be a valid token is
 	 *             encountered.
 	 */
-	public List<Token> lex(String input) throws RuntimeException {
-		List<Token> tokens = new ArrayList<Token>();
+	public List<Token> lex(CharSequence input) throws RuntimeException {
+		TokenBuffer buffer = this.lexToBuffer(input);
+		List<Token> tokens = new ArrayList<Token>(buffer.size());
+		while (buffer.hasNext()) {
+			buffer.next();
+			tokens.add(buffer.token());
+		}
+		return tokens;
+	}
 
-		String current = input;
+	/**
+	 * Lexes the passed string into a TokenBuffer, without building a Token
+	 * object per token.
+	 * 
+	 * @param input
+	 *            a string to be split into Tokens.
+	 * @return a TokenBuffer over a snapshot of input, positioned before its
+	 *         first token.
+	 * @throws RuntimeException
+	 *             if something that does appear to be a valid token is
+	 *             encountered.
+	 */
+	public TokenBuffer lexToBuffer(CharSequence input) throws RuntimeException {
+		// Tokens share the source, so take an immutable snapshot of it.
+		String text = input.toString();
+		int length = text.length();
+		TokenBuffer buffer = new TokenBuffer(this, text);
+		Matcher[] matchers = new Matcher[this.types.length];
+
+		int position = 0;
 
-		while (current.length() > 0) {
+		while (position < length) {
+			int type = this.match(text, position, true, matchers);
+			if (type < 0) {
+				throw new RuntimeException("Invalid token in \""
+						+ text.substring(position) + "\".");
+			}
+			int end = matchers[type].end();
+			buffer.add(type, position, end - position);
+			position = end;
+		}
+		return buffer;
+	}
 
-			boolean foundValidToken = false;
+	/**
+	 * Finds the TokenType of the token starting at position, which must be
+	 * strictly before the end of input.
+	 * 
+	 * @param input
+	 *            the characters being lexed.
+	 * @param position
+	 *            where the token starts.
+	 * @param complete
+	 *            whether input holds everything that will ever follow
+	 *            position. If not, a decision that depends on characters
+	 *            past the end of input is deferred.
+	 * @param matchers
+	 *            one slot per TokenType, filled in lazily with Matchers over
+	 *            input. Slots must be cleared if input is replaced.
+	 * @return the index of the matching TokenType, whose Matcher's end() is
+	 *         the end of the token; -1 if nothing matches; or
+	 *         NEED_MORE_INPUT if the answer depends on input not yet seen.
+	 */
+	int match(CharSequence input, int position, boolean complete,
+			Matcher[] matchers) {
+		int length = input.length();
+		char c = input.charAt(position);
+		int[] candidates = c < DISPATCH_SIZE ? this.dispatch[c]
+				: this.allTypes;
 
-			for (TokenType type : this.types) {
-				Matcher matcher = type.pattern.matcher(current);
-				if (matcher.lookingAt()) {
-					tokens.add(new Token(current.substring(matcher.start(),
-							matcher.end()), type));
-					current = current.substring(matcher.end());
-					foundValidToken = true;
-					break;
-				}
+		for (int i : candidates) {
+			Matcher matcher = matchers[i];
+			if (matcher == null) {
+				matcher = this.types[i].pattern.matcher(input);
+				matchers[i] = matcher;
+			}
+			matcher.region(position, length);
+			boolean found = matcher.lookingAt();
+			// A higher priority type may yet match, or this match may yet
+			// grow, once more input is available.
+			if (!complete && matcher.hitEnd()) {
+				return NEED_MORE_INPUT;
+			}
+			if (found) {
+				return i;
 			}
+		}
+		return -1;
+	}
 
-			if (!foundValidToken) {
-				throw new RuntimeException("Invalid token in \"" + current
-						+ "\".");
+	/**
+	 * Builds the Token for source[start, end) of the TokenType at index type.
+	 * Short tokens come from the flyweight cache. Longer ones refer to source
+	 * if shareSource, and own a copy of their text otherwise.
+	 */
+	Token token(CharSequence source, int start, int end, int type,
+			boolean shareSource) {
+		int length = end - start;
+		if (length <= FLYWEIGHT_LENGTH) {
+			int hash = type;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + source.charAt(i);
+			}
+			int slot = (hash ^ (hash >>> 10)) & (FLYWEIGHT_CACHE_SIZE - 1);
+			Token cached = this.flyweights[slot];
+			if (cached == null || cached.type != this.types[type]
+					|| !sameText(cached, source, start, length)) {
+				cached = new Token(source.subSequence(start, end).toString(),
+						this.types[type]);
+				this.flyweights[slot] = cached;
 			}
+			return cached;
 		}
-		return tokens;
+		if (shareSource) {
+			return new Token(source, start, length, this.types[type]);
+		}
+		return new Token(source.subSequence(start, end).toString(),
+				this.types[type]);
+	}
+
+	private static boolean sameText(Token token, CharSequence source,
+			int start, int length) {
+		if (token.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (token.charAt(i) != source.charAt(start + i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the type id of type, i.e. its position in the list this Lexer
+	 *         was built with, or TokenBuffer.NONE if it is not in that list.
+	 */
+	public int idOf(TokenType type) {
+		Integer id = this.ids.get(type);
+		return id == null ? TokenBuffer.NONE : id;
+	}
+
+	/**
+	 * @return the number of TokenTypes this Lexer recognizes.
+	 */
+	int typeCount() {
+		return this.types.length;
+	}
+
+	/**
+	 * @return the TokenType at index in priority order.
+	 */
+	TokenType type(int index) {
+		return this.types[index];
 	}
 }
@@ -1,6 +1,7 @@
 package lexer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -191,6 +192,39 @@ public class LexerMusicTest {
         
     }
 
+    /**
+     * Ensures that the first-character dispatch keeps the declared priority
+     * order, and that characters outside the dispatch table still reach
+     * every TokenType.
+     */
+    @Test
+    public void testDispatchOrder(){
+        TokenType ACCENTED = new TokenType("ACCENTED",
+                Pattern.compile("\u00e9+"));
+        types.add(ACCENTED);
+        Lexer l = new Lexer(types);
+        List<Token> tokens = l.lex("C|C\u00e9\u00e9");
+
+        List<Token> expected = new ArrayList<Token>();
+        expected.add(new Token("C", BASENOTE));
+        expected.add(new Token("|", BARLINE));
+        expected.add(new Token("C", BASENOTE));
+        expected.add(new Token("\u00e9\u00e9", ACCENTED));
+        assertEquals(expected, tokens);
+    }
+
+    /**
+     * Ensures that repeated short tokens are shared rather than copied.
+     */
+    @Test
+    public void testShortTokensShared(){
+        Lexer l = new Lexer(types);
+        List<Token> tokens = l.lex("|: z |: z");
+        assertSame(tokens.get(0), tokens.get(4));
+        assertSame(tokens.get(2), tokens.get(6));
+        assertEquals(new Token("|:", OPEN_REPEAT), tokens.get(0));
+    }
+
     /**
      * Ensures that null input correctly throws an error.  
      */
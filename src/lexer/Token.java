@@ -2,39 +2,119 @@ package lexer;
 
 /**
  * A token is a lexical item that the parser uses.
- * 
+ *
+ * A token does not own a copy of its text: it refers to a range of the
+ * source it was lexed from, and only builds a String for getContents() when
+ * first asked. Tokens are immutable, so the Lexer is free to hand out the
+ * same instance for every occurrence of a short token such as "|" or "z".
+ *
  * At the time of writing, this is modified version of woursler's PS 2 token
  * class, unchanged...
- * 
+ *
  * @author woursler
  * @version RC1
  */
 public class Token {
 	public final TokenType type;
-	public final String contents;
+
+	/**
+	 * The text this token was lexed from. Must not change while the token is
+	 * in use.
+	 */
+	private final CharSequence source;
+	private final int offset;
+	private final int length;
+
+	/**
+	 * source[offset, offset + length) as a String, built on first use. A race
+	 * between two threads building it is harmless, as both build equal
+	 * Strings.
+	 */
+	private String contents;
 
 	/**
 	 * Basic constructor for a Token instance.
-	 * 
+	 *
 	 * @param contents
 	 *            the String that makes up the token.
 	 * @param type
 	 *            the Token.Type that this token is.
 	 */
 	public Token(String contents, TokenType type) {
-		this.type = type;
+		this(contents, 0, contents.length(), type);
 		this.contents = contents;
 	}
 
+	/**
+	 * Constructs a Token over part of a larger source without copying it.
+	 *
+	 * @param source
+	 *            the text the token was lexed from. It must not be modified
+	 *            afterwards.
+	 * @param offset
+	 *            where the token starts in source.
+	 * @param length
+	 *            the number of characters in the token.
+	 * @param type
+	 *            the Token.Type that this token is.
+	 */
+	public Token(CharSequence source, int offset, int length, TokenType type) {
+		this.type = type;
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * @return the String that makes up the token.
+	 */
+	public String getContents() {
+		String contents = this.contents;
+		if (contents == null) {
+			contents = this.source.subSequence(this.offset,
+					this.offset + this.length).toString();
+			this.contents = contents;
+		}
+		return contents;
+	}
+
+	/**
+	 * @return the number of characters in the token.
+	 */
+	public int length() {
+		return this.length;
+	}
+
+	/**
+	 * @return the character at index within the token.
+	 */
+	public char charAt(int index) {
+		return this.source.charAt(this.offset + index);
+	}
+
 	public String toString() {
-		return type.name+" "+contents;
+		return type.name+" "+getContents();
 	}
-	
+
 	public boolean equals(Object other) {
         if (other instanceof Token) {
             Token otherPair = (Token) other;
-                return (this.contents.equals(otherPair.contents)) && (this.type==otherPair.type);
+            if (this.type != otherPair.type || this.length != otherPair.length)
+                return false;
+            for (int i = 0; i < this.length; i++) {
+                if (this.charAt(i) != otherPair.charAt(i))
+                    return false;
+            }
+            return true;
         }
         return false;
     }
+
+	public int hashCode() {
+		int hash = 0;
+		for (int i = 0; i < this.length; i++) {
+			hash = 31 * hash + this.charAt(i);
+		}
+		return hash;
+	}
 }
@@ -0,0 +1,450 @@
+package lexer;
+
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+
+/**
+ * A cursor over lexed tokens, stored as parallel int arrays of type id,
+ * offset and length rather than as Token objects. A type id is the index of
+ * the TokenType in its Lexer's priority list, so callers can dispatch on it
+ * with a switch.
+ *
+ * Moving the cursor never allocates. next() advances onto a token and
+ * returns its type id; the accessors (type(), length(), charAt(), text())
+ * then describe that current token. back() undoes one next(), and
+ * mark()/reset() return to any earlier position.
+ *
+ * A TokenBuffer is either filled in one go by Lexer.lexToBuffer, in which
+ * case offsets point into the lexed source, or pulls Tokens lazily from a
+ * ListIterator. In the latter case only the last HISTORY tokens behind the
+ * cursor are kept, and release() hands any token read ahead back to the
+ * iterator.
+ *
+ * A buffer filled by the Lexer can also follow edits of its source with
+ * edit(), which re-lexes only the tokens around the edit.
+ *
+ * @author woursler
+ * @version beta
+ */
+public final class TokenBuffer {
+
+	/**
+	 * Type id returned when there is no such token.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * How many tokens behind the cursor a pulling buffer keeps.
+	 */
+	public static final int HISTORY = 16;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final Lexer lexer;
+
+	/**
+	 * The lexed text, when the buffer was filled by a Lexer.
+	 */
+	private CharSequence source;
+
+	/**
+	 * Where to pull Tokens from, and the pulled Token for each slot, when
+	 * the buffer was built over an iterator.
+	 */
+	private final ListIterator<Token> upstream;
+	private Token[] pulled;
+
+	private int[] types;
+	private int[] offsets;
+	private int[] lengths;
+
+	/**
+	 * Number of slots in use.
+	 */
+	private int size;
+
+	/**
+	 * Slot of the token the next call to next() moves onto.
+	 */
+	private int cursor;
+
+	/**
+	 * Absolute position of slot 0. Only pulling buffers ever discard slots.
+	 */
+	private int base;
+
+	/**
+	 * Constructs an empty buffer over source, to be filled with add().
+	 */
+	TokenBuffer(Lexer lexer, CharSequence source) {
+		this.lexer = lexer;
+		this.source = source;
+		this.upstream = null;
+		this.types = new int[INITIAL_CAPACITY];
+		this.offsets = new int[INITIAL_CAPACITY];
+		this.lengths = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Constructs a buffer that pulls Tokens from upstream as they are needed.
+	 *
+	 * @param lexer
+	 *            the Lexer whose TokenTypes define the type ids.
+	 * @param upstream
+	 *            the Tokens to walk, starting at its current position.
+	 */
+	public TokenBuffer(Lexer lexer, ListIterator<Token> upstream) {
+		this.lexer = lexer;
+		this.source = null;
+		this.upstream = upstream;
+		this.pulled = new Token[INITIAL_CAPACITY];
+		this.types = new int[INITIAL_CAPACITY];
+		this.offsets = new int[INITIAL_CAPACITY];
+		this.lengths = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Appends the token source[offset, offset + length) of the given type.
+	 */
+	void add(int type, int offset, int length) {
+		if (this.size == this.types.length)
+			this.grow();
+		this.types[this.size] = type;
+		this.offsets[this.size] = offset;
+		this.lengths[this.size] = length;
+		this.size++;
+	}
+
+	/**
+	 * @return the total number of tokens seen so far.
+	 */
+	public int size() {
+		return this.base + this.size;
+	}
+
+	public boolean hasNext() {
+		return this.cursor < this.size || this.pull();
+	}
+
+	/**
+	 * Moves onto the next token.
+	 *
+	 * @return its type id.
+	 * @throws NoSuchElementException
+	 *             if there are no more tokens.
+	 */
+	public int next() {
+		if (!this.hasNext())
+			throw new NoSuchElementException();
+		return this.types[this.cursor++];
+	}
+
+	/**
+	 * Undoes one call to next(), so the token is returned again.
+	 */
+	public void back() {
+		if (this.cursor == 0)
+			throw new IllegalStateException("Cannot step back past "
+					+ this.base + ".");
+		this.cursor--;
+	}
+
+	/**
+	 * @return the current position, for a later reset().
+	 */
+	public int mark() {
+		return this.base + this.cursor;
+	}
+
+	/**
+	 * Returns to a position obtained from mark().
+	 */
+	public void reset(int mark) {
+		if (mark < this.base || mark > this.base + this.size)
+			throw new IllegalStateException("Mark " + mark
+					+ " is no longer buffered.");
+		this.cursor = mark - this.base;
+	}
+
+	/**
+	 * @return the type id of the current token.
+	 */
+	public int type() {
+		return this.types[this.current()];
+	}
+
+	/**
+	 * @return the TokenType of the current token.
+	 */
+	public TokenType tokenType() {
+		int slot = this.current();
+		if (this.source == null)
+			return this.pulled[slot].type;
+		return this.lexer.type(this.types[slot]);
+	}
+
+	/**
+	 * @return the number of characters in the current token.
+	 */
+	public int length() {
+		return this.lengths[this.current()];
+	}
+
+	/**
+	 * @return the character at index within the current token.
+	 */
+	public char charAt(int index) {
+		int slot = this.current();
+		if (this.source == null)
+			return this.pulled[slot].charAt(index);
+		return this.source.charAt(this.offsets[slot] + index);
+	}
+
+	/**
+	 * @return the text of the current token. This may allocate, so hot paths
+	 *         should prefer length() and charAt().
+	 */
+	public String text() {
+		int slot = this.current();
+		if (this.source == null)
+			return this.pulled[slot].getContents();
+		return this.source.subSequence(this.offsets[slot],
+				this.offsets[slot] + this.lengths[slot]).toString();
+	}
+
+	/**
+	 * @return the current token as a Token object.
+	 */
+	public Token token() {
+		int slot = this.current();
+		if (this.source == null)
+			return this.pulled[slot];
+		return this.lexer.token(this.source, this.offsets[slot],
+				this.offsets[slot] + this.lengths[slot], this.types[slot], true);
+	}
+
+	/**
+	 * @return the type id of the token at position index.
+	 */
+	public int typeAt(int index) {
+		return this.types[this.slot(index)];
+	}
+
+	/**
+	 * @return where the token at position index starts in the source. Only
+	 *         meaningful for a buffer filled by a Lexer.
+	 */
+	public int offsetAt(int index) {
+		return this.offsets[this.slot(index)];
+	}
+
+	/**
+	 * Brings a buffer filled by the Lexer up to date with an edit of its
+	 * source, in which removedLength characters at offset were replaced by
+	 * insertedLength others.
+	 * 
+	 * Lexing restarts at the line holding the edit and stops as soon as a new
+	 * token starts where an old one did past the edit, since from there on
+	 * both texts, and so their tokens, agree. This assumes that no TokenType
+	 * looks past the end of a line to decide how the text before it lexes,
+	 * which holds for every abc token once past the header.
+	 * 
+	 * The cursor is moved back to the first token.
+	 * 
+	 * @param text
+	 *            the whole source with the edit applied.
+	 * @return which tokens changed.
+	 * @throws RuntimeException
+	 *             if the edited text holds an invalid token. The buffer is
+	 *             then left as it was.
+	 */
+	public TokenEdit edit(String text, int offset, int removedLength,
+			int insertedLength) throws RuntimeException {
+		if (this.upstream != null)
+			throw new IllegalStateException(
+					"Only a buffer filled by a Lexer can be edited.");
+		int delta = insertedLength - removedLength;
+		int editEnd = offset + insertedLength;
+
+		// Keep every token that ends before the edited line starts.
+		int lineStart = offset;
+		while (lineStart > 0 && this.source.charAt(lineStart - 1) != '\n')
+			lineStart--;
+		int first = 0;
+		int last = this.size;
+		while (first < last) {
+			int middle = (first + last) >>> 1;
+			if (this.offsets[middle] + this.lengths[middle] > lineStart)
+				last = middle;
+			else
+				first = middle + 1;
+		}
+		int position = first < this.size ? this.offsets[first]
+				: this.source.length();
+
+		int[] types = new int[INITIAL_CAPACITY];
+		int[] offsets = new int[INITIAL_CAPACITY];
+		int[] lengths = new int[INITIAL_CAPACITY];
+		int count = 0;
+		Matcher[] matchers = new Matcher[this.lexer.typeCount()];
+		int old = first;
+		int length = text.length();
+		while (position < length) {
+			if (position >= editEnd) {
+				int oldPosition = position - delta;
+				while (old < this.size && this.offsets[old] < oldPosition)
+					old++;
+				if (old < this.size && this.offsets[old] == oldPosition)
+					break;
+			}
+			int type = this.lexer.match(text, position, true, matchers);
+			if (type < 0) {
+				throw new RuntimeException("Invalid token in \""
+						+ text.substring(position) + "\".");
+			}
+			int end = matchers[type].end();
+			if (count == types.length) {
+				int[] grown = new int[count * 2];
+				System.arraycopy(types, 0, grown, 0, count);
+				types = grown;
+				grown = new int[count * 2];
+				System.arraycopy(offsets, 0, grown, 0, count);
+				offsets = grown;
+				grown = new int[count * 2];
+				System.arraycopy(lengths, 0, grown, 0, count);
+				lengths = grown;
+			}
+			types[count] = type;
+			offsets[count] = position;
+			lengths[count] = end - position;
+			count++;
+			position = end;
+		}
+		if (position >= length)
+			old = this.size;
+
+		// Lexing restarted early and stopped late, so trim the tokens that
+		// came out the same on either side of the edit.
+		int removed = old - first;
+		int inserted = count;
+		int skip = 0;
+		while (skip < removed && skip < inserted
+				&& this.offsets[first + skip] + this.lengths[first + skip] <= offset
+				&& this.offsets[first + skip] == offsets[skip]
+				&& this.lengths[first + skip] == lengths[skip]
+				&& this.types[first + skip] == types[skip])
+			skip++;
+		while (removed > skip && inserted > skip
+				&& this.offsets[first + removed - 1] >= offset + removedLength
+				&& this.offsets[first + removed - 1] + delta == offsets[inserted - 1]
+				&& this.lengths[first + removed - 1] == lengths[inserted - 1]
+				&& this.types[first + removed - 1] == types[inserted - 1]) {
+			removed--;
+			inserted--;
+		}
+		first += skip;
+		removed -= skip;
+		inserted -= skip;
+
+		// Splice the new tokens in, and shift the ones after them.
+		int tail = this.size - first - removed;
+		while (this.size - removed + inserted > this.types.length)
+			this.grow();
+		int from = first + removed;
+		int to = first + inserted;
+		System.arraycopy(this.types, from, this.types, to, tail);
+		System.arraycopy(this.offsets, from, this.offsets, to, tail);
+		System.arraycopy(this.lengths, from, this.lengths, to, tail);
+		System.arraycopy(types, skip, this.types, first, inserted);
+		System.arraycopy(offsets, skip, this.offsets, first, inserted);
+		System.arraycopy(lengths, skip, this.lengths, first, inserted);
+		for (int i = to; i < to + tail; i++)
+			this.offsets[i] += delta;
+		this.size += inserted - removed;
+		this.source = text;
+		this.cursor = 0;
+		return new TokenEdit(first, removed, inserted);
+	}
+
+	/**
+	 * Steps the upstream iterator back over every token pulled from it but
+	 * not consumed here, leaving it where this buffer's cursor is.
+	 */
+	public void release() {
+		if (this.upstream == null)
+			return;
+		while (this.size > this.cursor) {
+			this.upstream.previous();
+			this.size--;
+		}
+	}
+
+	private int current() {
+		if (this.cursor == 0)
+			throw new IllegalStateException("No current token.");
+		return this.cursor - 1;
+	}
+
+	private int slot(int index) {
+		int slot = index - this.base;
+		if (slot < 0 || slot >= this.size)
+			throw new IndexOutOfBoundsException("Token " + index
+					+ " is not buffered.");
+		return slot;
+	}
+
+	/**
+	 * Pulls one more token from upstream, if there is one.
+	 */
+	private boolean pull() {
+		if (this.upstream == null || !this.upstream.hasNext())
+			return false;
+		if (this.size == this.types.length)
+			this.compact();
+		Token token = this.upstream.next();
+		this.pulled[this.size] = token;
+		this.add(this.lexer.idOf(token.type), 0, token.length());
+		return true;
+	}
+
+	/**
+	 * Drops tokens more than HISTORY behind the cursor to make room, growing
+	 * the arrays only if that frees nothing.
+	 */
+	private void compact() {
+		int drop = this.cursor - HISTORY;
+		if (drop <= 0) {
+			this.grow();
+			return;
+		}
+		int keep = this.size - drop;
+		System.arraycopy(this.pulled, drop, this.pulled, 0, keep);
+		System.arraycopy(this.types, drop, this.types, 0, keep);
+		System.arraycopy(this.offsets, drop, this.offsets, 0, keep);
+		System.arraycopy(this.lengths, drop, this.lengths, 0, keep);
+		for (int i = keep; i < this.size; i++)
+			this.pulled[i] = null;
+		this.base += drop;
+		this.cursor -= drop;
+		this.size = keep;
+	}
+
+	private void grow() {
+		int capacity = this.types.length * 2;
+		int[] types = new int[capacity];
+		int[] offsets = new int[capacity];
+		int[] lengths = new int[capacity];
+		System.arraycopy(this.types, 0, types, 0, this.size);
+		System.arraycopy(this.offsets, 0, offsets, 0, this.size);
+		System.arraycopy(this.lengths, 0, lengths, 0, this.size);
+		this.types = types;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		if (this.pulled != null) {
+			Token[] pulled = new Token[capacity];
+			System.arraycopy(this.pulled, 0, pulled, 0, this.size);
+			this.pulled = pulled;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package lexer;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.ListIterator;
+
+import org.junit.Test;
+
+import player.Parser;
+
+/**
+ * Test class for TokenBuffer
+ *
+ * Testing strategy:
+ * -A buffer filled by the Lexer must describe the same tokens Lexer.lex
+ *  returns, by type id and by text
+ * -next/back and mark/reset must move the cursor as documented
+ * -A buffer pulling from an iterator must hand unconsumed tokens back on
+ *  release, and keep working once it starts discarding old tokens
+ * -An edited buffer must describe the same tokens as lexing the edited text,
+ *  and report only the tokens that changed
+ *
+ * @author woursler
+ */
+public class TokenBufferTest {
+
+    private static final Lexer LEXER = new Lexer(Parser.types);
+
+    /**
+     * Ensures that a lexed buffer agrees with Lexer.lex.
+     */
+    @Test
+    public void testMatchesLex() {
+        String input = "X: 1\nT: Test\nK: C\n^A,2 b/ [CEG] z3/4 |: (3abc :|\n";
+        List<Token> expected = LEXER.lex(input);
+        TokenBuffer buffer = LEXER.lexToBuffer(input);
+        assertEquals(expected.size(), buffer.size());
+        for (Token token : expected) {
+            assertTrue(buffer.hasNext());
+            assertEquals(LEXER.idOf(token.type), buffer.next());
+            assertSame(token.type, buffer.tokenType());
+            assertEquals(token.getContents(), buffer.text());
+            assertEquals(token, buffer.token());
+        }
+        assertFalse(buffer.hasNext());
+    }
+
+    /**
+     * Ensures that back and mark/reset revisit the same tokens.
+     */
+    @Test
+    public void testBackAndReset() {
+        TokenBuffer buffer = LEXER.lexToBuffer("A B|C");
+        int start = buffer.mark();
+        buffer.next();
+        int afterA = buffer.mark();
+        buffer.next();
+        int space = buffer.type();
+        buffer.back();
+        assertEquals(space, buffer.next());
+        buffer.next();
+        assertEquals('B', buffer.charAt(0));
+        buffer.reset(afterA);
+        buffer.next();
+        buffer.next();
+        assertEquals('B', buffer.charAt(0));
+        buffer.reset(start);
+        buffer.next();
+        assertEquals("A", buffer.text());
+    }
+
+    /**
+     * Ensures that a pulling buffer gives unconsumed tokens back.
+     */
+    @Test
+    public void testRelease() {
+        ListIterator<Token> iter = LEXER.lex("A B C").listIterator();
+        TokenBuffer buffer = new TokenBuffer(LEXER, iter);
+        buffer.next();
+        buffer.next();
+        buffer.next();
+        buffer.back();
+        buffer.release();
+        assertEquals(2, iter.nextIndex());
+        assertEquals("B", iter.next().getContents());
+    }
+
+    /**
+     * Ensures that a pulling buffer keeps working past its history window.
+     */
+    @Test
+    public void testPullBeyondHistory() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10 * TokenBuffer.HISTORY; i++) {
+            input.append(i % 2 == 0 ? "A" : "|");
+        }
+        TokenBuffer buffer = new TokenBuffer(LEXER, LEXER.lex(input)
+                .listIterator());
+        int count = 0;
+        while (buffer.hasNext()) {
+            buffer.next();
+            buffer.back();
+            buffer.next();
+            assertEquals(count % 2 == 0 ? 'A' : '|', buffer.charAt(0));
+            count++;
+        }
+        assertEquals(input.length(), count);
+        assertEquals(input.length(), buffer.size());
+    }
+
+    /**
+     * Ensures that resetting to a discarded position fails loudly.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testResetBeyondHistory() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10 * TokenBuffer.HISTORY; i++) {
+            input.append("A");
+        }
+        TokenBuffer buffer = new TokenBuffer(LEXER, LEXER.lex(input)
+                .listIterator());
+        int start = buffer.mark();
+        while (buffer.hasNext()) {
+            buffer.next();
+        }
+        buffer.reset(start);
+    }
+
+    /**
+     * Ensures that an edited buffer agrees with lexing the edited text.
+     */
+    @Test
+    public void testEdit() {
+        String input = "K: C\nA B c3/4|\n% note\nd e f|]\n";
+        TokenBuffer buffer = LEXER.lexToBuffer(input);
+        int offset = input.indexOf("3/4");
+        String edited = input.substring(0, offset) + "3/" + input.substring(offset + 3);
+        TokenEdit change = buffer.edit(edited, offset, 3, 2);
+        assertEquals(LEXER.lexToBuffer(edited).size(), buffer.size());
+        assertEquals(1, change.removed);
+        assertEquals(1, change.inserted);
+        buffer.reset(change.first);
+        buffer.next();
+        assertEquals("3/", buffer.text());
+
+        List<Token> expected = LEXER.lex(edited);
+        buffer.reset(0);
+        for (Token token : expected) {
+            buffer.next();
+            assertEquals(token, buffer.token());
+        }
+        assertFalse(buffer.hasNext());
+    }
+}
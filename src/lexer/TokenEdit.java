@@ -0,0 +1,38 @@
+package lexer;
+
+/**
+ * Describes how TokenBuffer.edit changed a buffer: removed tokens starting
+ * at first were replaced by inserted new ones. Tokens before first are
+ * untouched, and tokens after the change are the same as before, only
+ * shifted by inserted - removed positions.
+ *
+ * @author woursler
+ * @version beta
+ */
+public final class TokenEdit {
+
+	/**
+	 * Position of the first changed token.
+	 */
+	public final int first;
+
+	/**
+	 * Number of tokens that were dropped at first.
+	 */
+	public final int removed;
+
+	/**
+	 * Number of tokens that took their place.
+	 */
+	public final int inserted;
+
+	TokenEdit(int first, int removed, int inserted) {
+		this.first = first;
+		this.removed = removed;
+		this.inserted = inserted;
+	}
+
+	public String toString() {
+		return "[" + first + ", -" + removed + ", +" + inserted + "]";
+	}
+}
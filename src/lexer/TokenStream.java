@@ -0,0 +1,211 @@
+package lexer;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+
+/**
+ * A pull-based source of Tokens, lexed on demand from a Readable (a Reader,
+ * a CharBuffer, ...) in fixed size chunks.
+ *
+ * Only the characters of the token being lexed and a bounded window of
+ * recently returned Tokens are held in memory, so peak memory depends on the
+ * longest token rather than on the size of the input. Within that window the
+ * stream may be stepped backwards with previous(), which is all the Parser
+ * ever needs.
+ *
+ * TokenStream is a read-only ListIterator; it does not support remove, set
+ * or add.
+ *
+ * @author woursler
+ * @version beta
+ */
+public class TokenStream implements ListIterator<Token> {
+
+	/**
+	 * Number of characters requested from the source at a time.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * How many Tokens behind the cursor remain reachable through previous().
+	 */
+	public static final int HISTORY = 16;
+
+	private final Lexer lexer;
+	private final Readable source;
+	private final CharBuffer chunk;
+
+	/**
+	 * Characters read from the source but not yet turned into Tokens start at
+	 * position.
+	 */
+	private final StringBuilder buffer;
+	private int position;
+	private boolean exhausted;
+
+	/**
+	 * Matchers over buffer, one slot per TokenType. Cleared whenever buffer
+	 * is modified.
+	 */
+	private final Matcher[] matchers;
+
+	/**
+	 * Token number i lives in window[i % HISTORY] for the last HISTORY Tokens
+	 * lexed.
+	 */
+	private final Token[] window;
+
+	/**
+	 * Number of Tokens lexed so far.
+	 */
+	private int lexed;
+
+	/**
+	 * Index of the Token the next call to next() will return.
+	 */
+	private int cursor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param lexer
+	 *            the Lexer defining the TokenTypes to recognize.
+	 * @param source
+	 *            where to read characters from. It is read lazily, as Tokens
+	 *            are requested, and is not closed by this stream.
+	 */
+	public TokenStream(Lexer lexer, Readable source) {
+		this(lexer, source, CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor with an explicit chunk size, mostly useful to exercise
+	 * tokens that straddle chunk boundaries.
+	 */
+	TokenStream(Lexer lexer, Readable source, int chunkSize) {
+		this.lexer = lexer;
+		this.source = source;
+		this.chunk = CharBuffer.allocate(chunkSize);
+		this.buffer = new StringBuilder();
+		this.position = 0;
+		this.exhausted = false;
+		this.matchers = new Matcher[lexer.typeCount()];
+		this.window = new Token[HISTORY];
+		this.lexed = 0;
+		this.cursor = 0;
+	}
+
+	public boolean hasNext() {
+		if (this.cursor < this.lexed)
+			return true;
+		return this.lexNext();
+	}
+
+	public Token next() {
+		if (!this.hasNext())
+			throw new NoSuchElementException();
+		return this.window[this.cursor++ % HISTORY];
+	}
+
+	public boolean hasPrevious() {
+		return this.cursor > 0 && this.cursor > this.lexed - HISTORY;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the previous Token has already left the history window.
+	 */
+	public Token previous() {
+		if (this.cursor == 0)
+			throw new NoSuchElementException();
+		if (!this.hasPrevious())
+			throw new IllegalStateException("Cannot step back more than "
+					+ HISTORY + " tokens.");
+		return this.window[--this.cursor % HISTORY];
+	}
+
+	public int nextIndex() {
+		return this.cursor;
+	}
+
+	public int previousIndex() {
+		return this.cursor - 1;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException("TokenStream is read-only.");
+	}
+
+	public void set(Token token) {
+		throw new UnsupportedOperationException("TokenStream is read-only.");
+	}
+
+	public void add(Token token) {
+		throw new UnsupportedOperationException("TokenStream is read-only.");
+	}
+
+	/**
+	 * Lexes one more Token into the window.
+	 *
+	 * @return false if the input is used up.
+	 * @throws RuntimeException
+	 *             if the source cannot be read or holds an invalid token.
+	 */
+	private boolean lexNext() {
+		while (true) {
+			if (this.position == this.buffer.length()) {
+				if (this.exhausted || !this.fill())
+					return false;
+			}
+
+			int type = this.lexer.match(this.buffer, this.position,
+					this.exhausted, this.matchers);
+			if (type == Lexer.NEED_MORE_INPUT) {
+				this.fill();
+				continue;
+			}
+			if (type < 0) {
+				throw new RuntimeException("Invalid token in \""
+						+ this.buffer.substring(this.position) + "\".");
+			}
+
+			int end = this.matchers[type].end();
+			// The buffer is reused, so Tokens must not share it.
+			this.window[this.lexed++ % HISTORY] = this.lexer.token(
+					this.buffer, this.position, end, type, false);
+			this.position = end;
+			return true;
+		}
+	}
+
+	/**
+	 * Drops consumed characters from the buffer and appends the next chunk
+	 * of the source.
+	 *
+	 * @return false if the source had nothing more to give.
+	 */
+	private boolean fill() {
+		this.buffer.delete(0, this.position);
+		this.position = 0;
+		for (int i = 0; i < this.matchers.length; i++)
+			this.matchers[i] = null;
+
+		int read;
+		try {
+			this.chunk.clear();
+			read = this.source.read(this.chunk);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read abc input.", e);
+		}
+		if (read < 0) {
+			this.exhausted = true;
+			return false;
+		}
+		this.chunk.flip();
+		this.buffer.append(this.chunk);
+		return true;
+	}
+}
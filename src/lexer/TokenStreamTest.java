@@ -0,0 +1,122 @@
+package lexer;
+
+import static org.junit.Assert.*;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import player.Parser;
+
+/**
+ * Test class for lexing abc music through a TokenStream.
+ *
+ * Testing strategy:
+ * -The stream must produce exactly the Tokens Lexer.lex does, including when
+ *  tokens straddle chunk boundaries (chunk sizes of 1 and a few characters)
+ * -previous() must work within the history window and fail past it
+ * -Invalid input must throw, as it does with Lexer.lex
+ *
+ * @author woursler
+ */
+public class TokenStreamTest {
+
+    private static final Lexer LEXER = new Lexer(Parser.types);
+
+    private static String readFile(String pathname) throws IOException {
+        FileReader reader = new FileReader(pathname);
+        StringBuilder contents = new StringBuilder();
+        char[] buffer = new char[1024];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            contents.append(buffer, 0, read);
+        }
+        reader.close();
+        return contents.toString();
+    }
+
+    private static List<Token> drain(TokenStream stream) {
+        List<Token> tokens = new ArrayList<Token>();
+        while (stream.hasNext()) {
+            tokens.add(stream.next());
+        }
+        return tokens;
+    }
+
+    /**
+     * Ensures that streaming a sample file gives the same Tokens as lexing it
+     * whole, whatever the chunk size.
+     */
+    @Test
+    public void testMatchesLexer() throws IOException {
+        String contents = readFile("sample_abc/invention.abc");
+        List<Token> expected = LEXER.lex(contents);
+        for (int chunkSize : new int[] { 1, 3, 7, 4096 }) {
+            assertEquals(expected, drain(new TokenStream(LEXER,
+                    new StringReader(contents), chunkSize)));
+        }
+        assertEquals(expected,
+                drain(new TokenStream(LEXER, CharBuffer.wrap(contents))));
+    }
+
+    /**
+     * Ensures that a token longer than a chunk is not split.
+     */
+    @Test
+    public void testLongTokenAcrossChunks() {
+        TokenStream stream = new TokenStream(LEXER, new StringReader(
+                "T: A rather long title\n''''12/345"), 2);
+        assertEquals(new Token("T: A rather long title\n", Parser.FIELD_TITLE),
+                stream.next());
+        assertEquals(new Token("''''", Parser.OCTAVE), stream.next());
+        assertEquals(new Token("12/345", Parser.FRACTION), stream.next());
+        assertFalse(stream.hasNext());
+    }
+
+    /**
+     * Ensures that previous() steps back within the history window.
+     */
+    @Test
+    public void testPrevious() {
+        TokenStream stream = new TokenStream(LEXER, new StringReader("A B|"));
+        assertFalse(stream.hasPrevious());
+        Token a = stream.next();
+        stream.next();
+        Token b = stream.next();
+        assertEquals(b, stream.previous());
+        assertEquals(1, stream.previousIndex());
+        stream.previous();
+        assertEquals(a, stream.previous());
+        assertEquals(a, stream.next());
+    }
+
+    /**
+     * Ensures that stepping back past the history window throws.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testPreviousBeyondHistory() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i <= TokenStream.HISTORY; i++) {
+            input.append("A");
+        }
+        TokenStream stream = new TokenStream(LEXER, new StringReader(
+                input.toString()));
+        drain(stream);
+        for (int i = 0; i <= TokenStream.HISTORY; i++) {
+            stream.previous();
+        }
+    }
+
+    /**
+     * Ensures that non-recognized patterns correctly throw an error.
+     */
+    @Test(expected = RuntimeException.class)
+    public void testInvalidToken() {
+        drain(new TokenStream(LEXER, new StringReader("A B .")));
+    }
+}
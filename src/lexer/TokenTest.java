@@ -23,4 +23,17 @@ public class TokenTest {
         assertTrue(t.equals(new Token("X:\n", FIELD_NUM)));
     }
 
+    /**
+     * A Token over part of a larger source equals one built from its text.
+     */
+    @Test
+    public void testSourceBackedEquals(){
+        String source = "abcX:\ndef";
+        Token t = new Token(source, 3, 3, FIELD_NUM);
+        assertEquals(new Token("X:\n", FIELD_NUM), t);
+        assertEquals(new Token("X:\n", FIELD_NUM).hashCode(), t.hashCode());
+        assertEquals("X:\n", t.getContents());
+        assertFalse(t.equals(new Token(source, 3, 4, FIELD_NUM)));
+    }
+
 }
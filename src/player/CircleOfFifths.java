@@ -37,10 +37,10 @@ public class CircleOfFifths {
             if(key.equalsIgnoreCase(FIFTHS_MAJOR_SHARP[i])){
                 for(int j=0; j<NONSHARPS.length; j++){
                     if(j<i){
-                        scale.put(NONSHARPS[j], new Pitch(NONSHARPS[j].charAt(0)).transpose(1));
+                        scale.put(NONSHARPS[j], Pitch.of(NONSHARPS[j].charAt(0)).transpose(1));
                     }
                     else
-                        scale.put(NONSHARPS[j], new Pitch(NONSHARPS[j].charAt(0)));
+                        scale.put(NONSHARPS[j], Pitch.of(NONSHARPS[j].charAt(0)));
                 }
                 return scale;
             }
@@ -49,10 +49,10 @@ public class CircleOfFifths {
             if(key.equalsIgnoreCase(FIFTHS_MAJOR_FLAT[i])){
                 for(int j=0; j<NONFLATS.length; j++){
                     if(j<i){
-                        scale.put(NONFLATS[j], new Pitch(NONFLATS[j].charAt(0)).transpose(-1));
+                        scale.put(NONFLATS[j], Pitch.of(NONFLATS[j].charAt(0)).transpose(-1));
                     }
                     else
-                        scale.put(NONFLATS[j], new Pitch(NONFLATS[j].charAt(0)));
+                        scale.put(NONFLATS[j], Pitch.of(NONFLATS[j].charAt(0)));
                 }
                 return scale;
             }
@@ -61,10 +61,10 @@ public class CircleOfFifths {
             if(key.equalsIgnoreCase(FIFTHS_MINOR_SHARP[i])){
                 for(int j=0; j<NONSHARPS.length; j++){
                     if(j<i){
-                        scale.put(NONSHARPS[j], new Pitch(NONSHARPS[j].charAt(0)).transpose(1));
+                        scale.put(NONSHARPS[j], Pitch.of(NONSHARPS[j].charAt(0)).transpose(1));
                     }
                     else
-                        scale.put(NONSHARPS[j], new Pitch(NONSHARPS[j].charAt(0)));
+                        scale.put(NONSHARPS[j], Pitch.of(NONSHARPS[j].charAt(0)));
                 }
                 return scale;
             }
@@ -73,10 +73,10 @@ public class CircleOfFifths {
             if(key.equalsIgnoreCase(FIFTHS_MINOR_FLAT[i])){
                 for(int j=0; j<NONFLATS.length; j++){
                     if(j<i){
-                        scale.put(NONFLATS[j], new Pitch(NONFLATS[j].charAt(0)).transpose(-1));
+                        scale.put(NONFLATS[j], Pitch.of(NONFLATS[j].charAt(0)).transpose(-1));
                     }
                     else
-                        scale.put(NONFLATS[j], new Pitch(NONFLATS[j].charAt(0)));
+                        scale.put(NONFLATS[j], Pitch.of(NONFLATS[j].charAt(0)));
                 }
                 return scale;
             }
@@ -15,7 +15,7 @@ public class FractionParser {
         int cutoff = fract.indexOf('/');
         if (cutoff == -1)
         {
-            return new Fraction(Integer.parseInt(fract));
+            return Fraction.valueOf(Integer.parseInt(fract));
         }
         
         String num = fract.substring(0, cutoff);
@@ -36,7 +36,7 @@ public class FractionParser {
         {
             second = Integer.parseInt(num);
         }
-        return new Fraction(first, second);
+        return Fraction.valueOf(first, second);
         
     }
 
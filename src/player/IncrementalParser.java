@@ -0,0 +1,180 @@
+package player;
+
+import lexer.TokenBuffer;
+import lexer.TokenEdit;
+
+/**
+ * Keeps a Piece up to date with a text that is being edited, e.g. in an
+ * editor that wants to re-parse after every keystroke.
+ *
+ * Each edit only re-lexes the tokens around it. When the changed tokens all
+ * lie inside the contents of one Measure and none of them is a bar, repeat,
+ * voice or header field, only that Measure is emptied and parsed again, and
+ * the Piece and the rest of its linked Measures stay as they were. Any other
+ * edit, and any edit that touches the header, falls back to parsing the
+ * whole text again.
+ *
+ * Either way the Piece is the same as Parser.parse would build from the
+ * edited text.
+ *
+ * @author woursler
+ * @version beta
+ */
+public class IncrementalParser {
+
+	private String contents;
+
+	/**
+	 * Tokens of contents, or null if contents does not lex.
+	 */
+	private TokenBuffer tokens;
+
+	/**
+	 * The Piece for contents, and the tokens each of its Measures came from.
+	 * Both are null if contents does not parse.
+	 */
+	private Piece piece;
+	private MeasureSegments segments;
+
+	/**
+	 * Parses abcContents in full, as Parser.parse does.
+	 *
+	 * @throws NoteOutOfBoundsException
+	 */
+	public IncrementalParser(String abcContents)
+			throws NoteOutOfBoundsException {
+		this.contents = abcContents;
+		this.reparse();
+	}
+
+	/**
+	 * @return the text as edited so far.
+	 */
+	public String getContents() {
+		return this.contents;
+	}
+
+	/**
+	 * @return the Piece for the current text, or null if the last edit left
+	 *         text that does not parse.
+	 */
+	public Piece getPiece() {
+		return this.piece;
+	}
+
+	/**
+	 * Replaces removedLength characters at offset with inserted, and brings
+	 * the Piece up to date.
+	 *
+	 * @return the Piece for the edited text. It is the same Piece as before
+	 *         unless the whole text had to be parsed again.
+	 * @throws NoteOutOfBoundsException
+	 *             or RuntimeException, as Parser.parse would for the edited
+	 *             text. The edit is kept all the same, so later edits may fix
+	 *             the text up again.
+	 */
+	public Piece edit(int offset, int removedLength, String inserted)
+			throws NoteOutOfBoundsException {
+		if (offset < 0 || removedLength < 0
+				|| offset + removedLength > this.contents.length())
+			throw new IndexOutOfBoundsException("Cannot remove "
+					+ removedLength + " characters at " + offset + ".");
+		this.contents = this.contents.substring(0, offset) + inserted
+				+ this.contents.substring(offset + removedLength);
+
+		// Header fields may span lines, so edits up there are lexed afresh.
+		if (this.piece == null || this.segments.size() == 0
+				|| offset < this.tokens.offsetAt(this.segments.start(0))) {
+			this.reparse();
+			return this.piece;
+		}
+
+		TokenEdit change;
+		try {
+			change = this.tokens.edit(this.contents, offset, removedLength,
+					inserted.length());
+		} catch (RuntimeException e) {
+			this.tokens = null;
+			this.piece = null;
+			this.segments = null;
+			throw e;
+		}
+
+		try {
+			if (!this.reparseMeasure(change))
+				this.parse();
+		} catch (NoteOutOfBoundsException e) {
+			this.piece = null;
+			this.segments = null;
+			throw e;
+		} catch (RuntimeException e) {
+			this.piece = null;
+			this.segments = null;
+			throw e;
+		}
+		return this.piece;
+	}
+
+	/**
+	 * Re-parses the one Measure change falls into, if it can be done
+	 * without touching the linking structure.
+	 *
+	 * @return false if the whole piece must be parsed again.
+	 */
+	private boolean reparseMeasure(TokenEdit change)
+			throws NoteOutOfBoundsException {
+		int segment = this.segments.find(change.first, change.removed);
+		if (segment < 0)
+			return false;
+		for (int i = change.first; i < change.first + change.inserted; i++) {
+			if (!Parser.isMeasureContent(this.tokens.typeAt(i)))
+				return false;
+		}
+		this.segments.resize(segment, change.inserted - change.removed);
+
+		// The music loop skips blank lines before it starts a segment, and
+		// starts a voice on the first token it does not skip.
+		int start = this.segments.start(segment);
+		if (this.segments.isLineStart(segment)
+				&& change.first == start
+				&& (start == this.segments.end(segment) || Parser
+						.isNewLine(this.tokens.typeAt(start))))
+			return false;
+
+		Measure measure = this.segments.measure(segment);
+		KeySignature key = this.piece.getKeySignature();
+		measure.clearNotes();
+		for (int i = 0; i < this.segments.size(); i++) {
+			if (this.segments.measure(i) != measure)
+				continue;
+			this.tokens.reset(this.segments.start(i));
+			Parser.parseMeasureContents(this.piece, measure, this.tokens, key);
+			if (this.tokens.mark() != this.segments.end(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Lexes and parses contents from scratch.
+	 */
+	private void reparse() throws NoteOutOfBoundsException {
+		this.tokens = null;
+		this.piece = null;
+		this.segments = null;
+		this.tokens = Parser.lexToBuffer(this.contents);
+		this.parse();
+	}
+
+	/**
+	 * Parses the whole of tokens.
+	 */
+	private void parse() throws NoteOutOfBoundsException {
+		this.piece = null;
+		this.segments = null;
+		this.tokens.reset(0);
+		MeasureSegments segments = new MeasureSegments();
+		this.piece = Parser.parseTokens(this.tokens, segments);
+		this.segments = segments;
+	}
+}
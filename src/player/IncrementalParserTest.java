@@ -0,0 +1,175 @@
+package player;
+
+import static org.junit.Assert.*;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test class for IncrementalParser
+ *
+ * Testing strategy:
+ * -After any edit, the Piece must match what Parser.parse builds from the
+ *  edited text, or both must fail with the same kind of exception
+ * -An edit inside one measure must keep the same Piece and Measure objects
+ * -Edits that add bars or change the header must still come out right
+ * -An edit that breaks the text must not stop later edits from fixing it
+ *
+ * @author woursler
+ */
+public class IncrementalParserTest {
+
+    private static final String PIECE = "X:1\nT:Test\nK:C\nA B C D|E F G A|\n";
+
+    private static String readFile(String pathname) throws IOException {
+        FileReader reader = new FileReader(pathname);
+        StringBuilder contents = new StringBuilder();
+        char[] buffer = new char[1024];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            contents.append(buffer, 0, read);
+        }
+        reader.close();
+        return contents.toString();
+    }
+
+    /**
+     * Describes everything parsing puts into a Piece.
+     */
+    private static String describe(Piece piece) {
+        StringBuilder description = new StringBuilder();
+        description.append(piece.getTitle()).append(' ')
+                .append(piece.getKey()).append(' ')
+                .append(piece.getMeter()).append(' ')
+                .append(piece.getDefaultNoteLength()).append('\n');
+        for (Voice voice : piece.getVoices()) {
+            description.append(voice.name).append(":\n");
+            if (voice.getStart() == null)
+                continue;
+            for (Measure measure : voice) {
+                description.append(measure.getDuration()).append(' ')
+                        .append(measure).append('\n');
+            }
+        }
+        return description.toString();
+    }
+
+    private static String parseOrFail(String contents) {
+        try {
+            return describe(Parser.parse(contents));
+        } catch (Exception e) {
+            return e.getClass().getName();
+        }
+    }
+
+    private static String editOrFail(IncrementalParser parser, int offset,
+            int removed, String inserted) {
+        try {
+            return describe(parser.edit(offset, removed, inserted));
+        } catch (Exception e) {
+            return e.getClass().getName();
+        }
+    }
+
+    /**
+     * Ensures that changing a note keeps every Measure object.
+     */
+    @Test
+    public void testEditInsideMeasure() throws NoteOutOfBoundsException {
+        IncrementalParser parser = new IncrementalParser(PIECE);
+        Piece piece = parser.getPiece();
+        Measure first = piece.getVoices().get(0).getStart();
+        Measure second = first.getNext();
+
+        int offset = PIECE.indexOf("F G");
+        assertSame(piece, parser.edit(offset, 3, "^F2 [G/B/]"));
+        assertSame(first, piece.getVoices().get(0).getStart());
+        assertSame(second, first.getNext());
+        assertEquals(describe(Parser.parse(parser.getContents())),
+                describe(piece));
+    }
+
+    /**
+     * Ensures that adding a bar re-links the measures.
+     */
+    @Test
+    public void testAddBar() throws NoteOutOfBoundsException {
+        IncrementalParser parser = new IncrementalParser(PIECE);
+        parser.edit(PIECE.indexOf(" C D"), 1, "|:");
+        parser.edit(parser.getContents().indexOf("A|"), 2, "A:|");
+        assertEquals("X:1\nT:Test\nK:C\nA B|:C D|E F G A:|\n",
+                parser.getContents());
+        assertEquals(describe(Parser.parse(parser.getContents())),
+                describe(parser.getPiece()));
+    }
+
+    /**
+     * Ensures that editing the header re-parses the piece.
+     */
+    @Test
+    public void testEditHeader() throws NoteOutOfBoundsException {
+        IncrementalParser parser = new IncrementalParser(PIECE);
+        parser.edit(PIECE.indexOf("K:C"), 3, "K:D");
+        assertEquals("D", parser.getPiece().getKey());
+        assertEquals(describe(Parser.parse(parser.getContents())),
+                describe(parser.getPiece()));
+    }
+
+    /**
+     * Ensures that a failed edit can be undone by a later one.
+     */
+    @Test
+    public void testRecoverFromError() throws NoteOutOfBoundsException {
+        IncrementalParser parser = new IncrementalParser(PIECE);
+        String expected = describe(parser.getPiece());
+        int offset = PIECE.indexOf("E F");
+        try {
+            parser.edit(offset, 0, "A8");
+            fail("Measure should be too long");
+        } catch (NoteOutOfBoundsException e) {
+            assertNull(parser.getPiece());
+        }
+        try {
+            parser.edit(offset, 0, ".");
+            fail("Text should not lex");
+        } catch (RuntimeException e) {
+            assertNull(parser.getPiece());
+        }
+        parser.edit(offset, 3, "");
+        assertEquals(PIECE, parser.getContents());
+        assertEquals(expected, describe(parser.getPiece()));
+    }
+
+    /**
+     * Ensures that random edits of a sample piece agree with parsing the
+     * edited text from scratch.
+     */
+    @Test
+    public void testRandomEdits() throws IOException,
+            NoteOutOfBoundsException {
+        String[] snippets = { "A", "c'", "^f,2", "z/", "[CEG]", "(3abc", " ",
+                "\n", "|", ":|", "|:", "[1", "%x\n", "V:1\n", "2", "/" };
+        String original = readFile("sample_abc/paddy.abc");
+        IncrementalParser parser = new IncrementalParser(original);
+        Random random = new Random(6);
+        for (int i = 0; i < 400; i++) {
+            String contents = parser.getContents();
+            int offset = random.nextInt(contents.length() + 1);
+            int removed = Math.min(random.nextInt(4),
+                    contents.length() - offset);
+            String inserted = random.nextBoolean() ? ""
+                    : snippets[random.nextInt(snippets.length)];
+            String edited = contents.substring(0, offset) + inserted
+                    + contents.substring(offset + removed);
+            assertEquals("Editing " + contents, parseOrFail(edited),
+                    editOrFail(parser, offset, removed, inserted));
+            // Undo now and then, so the text stays mostly valid.
+            if (random.nextInt(3) > 0) {
+                parser.edit(0, edited.length(), original);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package player;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import sound.Pitch;
+
+/**
+ * The key signature of a piece: which base notes are sharpened or flattened
+ * unless an accidental says otherwise.
+ *
+ * A KeySignature is resolved once from the K: field and is then a table
+ * lookup per note, indexed by base note letter. The fifteen signatures, from
+ * seven flats to seven sharps, are built once and shared, so resolving a key
+ * allocates nothing.
+ *
+ * Keys are a tonic, an optional # or b, and an optional mode. Modes are
+ * recognized by their first three letters as in the abc standard (maj, ion,
+ * mix, dor, aeo, phr, loc, lyd, min), and a lone m means minor. As in
+ * CircleOfFifths, case is ignored throughout.
+ *
+ * @author kimtoy, woursler
+ * @version beta
+ */
+public final class KeySignature {
+
+	/**
+	 * Tonics from A to G, in fifths from C major: G is one sharp, F one flat.
+	 */
+	private static final int[] TONIC_FIFTHS = { 3, 5, 0, 2, 4, -1, 1 };
+
+	/**
+	 * Order in which sharps are added, as letter indices: F C G D A E B.
+	 * Flats are added in the reverse order.
+	 */
+	private static final int[] SHARP_ORDER = { 5, 2, 6, 3, 0, 4, 1 };
+
+	private static final String[] MODES = { "maj", "ion", "mix", "dor", "aeo",
+			"phr", "loc", "lyd", "min" };
+
+	/**
+	 * How far each of MODES moves the signature from the major key of the
+	 * same tonic, in fifths.
+	 */
+	private static final int[] MODE_FIFTHS = { 0, 0, -1, -2, -3, -4, -5, 1,
+			-3 };
+
+	private static final int MAX_FIFTHS = 7;
+
+	private static final KeySignature[] SIGNATURES = new KeySignature[2 * MAX_FIFTHS + 1];
+	static {
+		for (int fifths = -MAX_FIFTHS; fifths <= MAX_FIFTHS; fifths++) {
+			Pitch[] pitches = new Pitch[7];
+			for (int letter = 0; letter < 7; letter++)
+				pitches[letter] = Pitch.of((char) ('A' + letter));
+			for (int i = 0; i < Math.abs(fifths); i++) {
+				int letter = fifths > 0 ? SHARP_ORDER[i] : SHARP_ORDER[6 - i];
+				pitches[letter] = pitches[letter].transpose(fifths > 0 ? 1 : -1);
+			}
+			SIGNATURES[fifths + MAX_FIFTHS] = new KeySignature(fifths, pitches);
+		}
+	}
+
+	/**
+	 * Sharps (positive) or flats (negative) in this signature.
+	 */
+	private final int fifths;
+
+	/**
+	 * The pitch of each base note from A to G in the middle octave.
+	 */
+	private final Pitch[] pitches;
+
+	private KeySignature(int fifths, Pitch[] pitches) {
+		this.fifths = fifths;
+		this.pitches = pitches;
+	}
+
+	/**
+	 * @return the signature with the given number of sharps (if positive) or
+	 *         flats (if negative).
+	 * @throws IllegalArgumentException
+	 *             if there would be more than seven.
+	 */
+	public static KeySignature of(int fifths) {
+		if (fifths < -MAX_FIFTHS || fifths > MAX_FIFTHS)
+			throw new IllegalArgumentException("No key has " + fifths
+					+ " fifths.");
+		return SIGNATURES[fifths + MAX_FIFTHS];
+	}
+
+	/**
+	 * Resolves a key as written in a K: field, without spaces.
+	 *
+	 * @return its signature, or null if key is not a key or needs more than
+	 *         seven sharps or flats.
+	 */
+	public static KeySignature forKey(String key) {
+		if (key == null || key.length() == 0)
+			return null;
+		int letter = Character.toUpperCase(key.charAt(0)) - 'A';
+		if (letter < 0 || letter >= 7)
+			return null;
+		int fifths = TONIC_FIFTHS[letter];
+		int position = 1;
+		if (position < key.length()) {
+			char accidental = Character.toLowerCase(key.charAt(position));
+			if (accidental == '#') {
+				fifths += 7;
+				position++;
+			} else if (accidental == 'b') {
+				fifths -= 7;
+				position++;
+			}
+		}
+		String mode = key.substring(position).toLowerCase();
+		if (mode.equals("m")) {
+			fifths -= 3;
+		} else if (mode.length() > 0) {
+			int index = mode.length() < 3 ? -1 : Arrays.asList(MODES).indexOf(
+					mode.substring(0, 3));
+			if (index < 0)
+				return null;
+			fifths += MODE_FIFTHS[index];
+		}
+		if (fifths < -MAX_FIFTHS || fifths > MAX_FIFTHS)
+			return null;
+		return SIGNATURES[fifths + MAX_FIFTHS];
+	}
+
+	/**
+	 * Adapts a scale in the form CircleOfFifths builds.
+	 *
+	 * @return a signature mapping each base note as scale does, or null if
+	 *         scale is null.
+	 */
+	public static KeySignature fromScale(Map<String, Pitch> scale) {
+		if (scale == null)
+			return null;
+		Pitch[] pitches = new Pitch[7];
+		for (int letter = 0; letter < 7; letter++)
+			pitches[letter] = scale.get(String.valueOf((char) ('A' + letter)));
+		for (KeySignature signature : SIGNATURES) {
+			if (Arrays.equals(signature.pitches, pitches))
+				return signature;
+		}
+		return new KeySignature(Integer.MIN_VALUE, pitches);
+	}
+
+	/**
+	 * @return the number of sharps (if positive) or flats (if negative).
+	 */
+	public int getFifths() {
+		return this.fifths;
+	}
+
+	/**
+	 * @param letter
+	 *            an upper case base note, 'A' to 'G'.
+	 * @return its pitch in this key, in the middle octave.
+	 */
+	public Pitch pitch(char letter) {
+		return this.pitches[letter - 'A'];
+	}
+
+	public boolean equals(Object other) {
+		return other instanceof KeySignature
+				&& Arrays.equals(this.pitches, ((KeySignature) other).pitches);
+	}
+
+	public int hashCode() {
+		return Arrays.hashCode(this.pitches);
+	}
+
+	public String toString() {
+		return Arrays.toString(this.pitches);
+	}
+}
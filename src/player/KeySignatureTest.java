@@ -0,0 +1,93 @@
+package player;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import sound.Pitch;
+
+/**
+ * Test class for KeySignature
+ *
+ * Testing Strategy:
+ * -Every major and minor key must map each base note as CircleOfFifths does
+ * -Modes must come out as the major key with the same notes
+ * -Case must not matter, and modes may be spelled out in full
+ * -Keys that are not keys, or need more than seven accidentals, give null
+ *
+ * @author kimtoy
+ */
+public class KeySignatureTest {
+
+    private static final String[][] KEYS = {
+            CircleOfFifths.FIFTHS_MAJOR_SHARP,
+            CircleOfFifths.FIFTHS_MAJOR_FLAT,
+            CircleOfFifths.FIFTHS_MINOR_SHARP,
+            CircleOfFifths.FIFTHS_MINOR_FLAT };
+
+    /**
+     * Ensures every key CircleOfFifths knows has the same notes here.
+     */
+    @Test
+    public void testAgreesWithCircleOfFifths() {
+        for (String[] keys : KEYS) {
+            for (String key : keys) {
+                HashMap<String, Pitch> scale = CircleOfFifths
+                        .getKeySignature(key);
+                KeySignature signature = KeySignature.forKey(key);
+                assertNotNull(key, signature);
+                for (char letter = 'A'; letter <= 'G'; letter++) {
+                    assertEquals(key + " " + letter,
+                            scale.get(String.valueOf(letter)),
+                            signature.pitch(letter));
+                }
+                assertSame(signature, KeySignature.fromScale(scale));
+            }
+        }
+    }
+
+    @Test
+    public void testFifths() {
+        assertEquals(0, KeySignature.forKey("C").getFifths());
+        assertEquals(2, KeySignature.forKey("D").getFifths());
+        assertEquals(-3, KeySignature.forKey("cm").getFifths());
+        assertEquals(7, KeySignature.forKey("C#").getFifths());
+        assertEquals(-7, KeySignature.forKey("Cb").getFifths());
+        assertSame(KeySignature.of(1), KeySignature.forKey("em"));
+    }
+
+    @Test
+    public void testModes() {
+        KeySignature c = KeySignature.of(0);
+        assertSame(c, KeySignature.forKey("Cmaj"));
+        assertSame(c, KeySignature.forKey("Cion"));
+        assertSame(c, KeySignature.forKey("Ddor"));
+        assertSame(c, KeySignature.forKey("Ephr"));
+        assertSame(c, KeySignature.forKey("Flyd"));
+        assertSame(c, KeySignature.forKey("Gmix"));
+        assertSame(c, KeySignature.forKey("Aaeo"));
+        assertSame(c, KeySignature.forKey("Amin"));
+        assertSame(c, KeySignature.forKey("Bloc"));
+        assertSame(KeySignature.of(-1), KeySignature.forKey("ELocrian"));
+        assertSame(KeySignature.of(-1), KeySignature.forKey("gDorian"));
+        assertSame(KeySignature.of(3), KeySignature.forKey("F#minor"));
+    }
+
+    @Test
+    public void testUnknownKeys() {
+        assertNull(KeySignature.forKey(null));
+        assertNull(KeySignature.forKey(""));
+        assertNull(KeySignature.forKey("H"));
+        assertNull(KeySignature.forKey("Cxyz"));
+        assertNull(KeySignature.forKey("Cmi"));
+        assertNull(KeySignature.forKey("G#"));
+        assertNull(KeySignature.forKey("Fbm"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyFifths() {
+        KeySignature.of(8);
+    }
+}
@@ -1,10 +1,13 @@
 package player;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
+import sound.Pitch;
 import utilities.Fraction;
+import utilities.MutableFraction;
 import utilities.Pair;
 
 /**
@@ -19,18 +22,32 @@ import utilities.Pair;
 public class Measure implements Iterable<Measure> {
 
 	/**
-	 * Duration of the measure.
+	 * Duration of the measure, kept in place as notes are added. durationValue
+	 * is it as a Fraction, or null until asked for after a change.
 	 */
-	private Fraction duration;
+	private final MutableFraction duration = new MutableFraction();
+	private Fraction durationValue;
 
 	public Fraction getDuration() {
-        return duration;
-    }
+		if (this.durationValue == null)
+			this.durationValue = this.duration.toFraction();
+		return this.durationValue;
+	}
 
     /**
-	 * A list of notes, each associated with their start times.
+	 * The notes of the measure, in the order they were added, as parallel
+	 * arrays: the pitch of each as Pitch.toPacked gives it, and its start
+	 * time and duration as the numerator and denominator of a Fraction in
+	 * least terms. Only the first noteCount entries are used.
 	 */
-	private List<Pair<Note, Fraction>> notes;
+	private int noteCount;
+	private int[] pitches = NO_INTS;
+	private int[] startNumerators = NO_INTS;
+	private int[] startDenominators = NO_INTS;
+	private int[] durationNumerators = NO_INTS;
+	private int[] durationDenominators = NO_INTS;
+
+	private static final int[] NO_INTS = {};
 
 	// Linking Structures...
 
@@ -44,6 +61,27 @@ public class Measure implements Iterable<Measure> {
 	 */
 	private Measure alternateNext = null;
 
+	/**
+	 * Counts changes to the links, notes and duration of this measure, so
+	 * that a Voice can tell whether what it worked out from them is stale.
+	 */
+	private int modCount;
+
+	/**
+	 * The Voice that has worked something out from this measure and is told
+	 * of every change to it, or null if none is.
+	 */
+	private Voice voice;
+
+	/**
+	 * The greatest division of which every note's start time and duration is
+	 * a multiple, kept up to date as notes are added, or zero if there are
+	 * no notes. smallestDivision also takes the duration into account; it is
+	 * null until asked for after a change.
+	 */
+	private final MutableFraction noteDivision = new MutableFraction();
+	private Fraction smallestDivision;
+
 	/**
 	 * Full constructor. All values are explicit. If you want to assign an
 	 * existing list of notes, use this one.
@@ -56,8 +94,6 @@ public class Measure implements Iterable<Measure> {
 			throws NoteOutOfBoundsException{
 		this.next = next;
 		this.alternateNext = alternateNext;
-		this.notes = new ArrayList<Pair<Note, Fraction>>();
-		this.duration = new Fraction(0);
 		// Add each new note in a safe manner.
 		for (Pair<Note, Fraction> note : notes)
 			this.addNote(note.first, note.second);
@@ -69,8 +105,6 @@ public class Measure implements Iterable<Measure> {
 	public Measure(Measure next, Measure alternateNext) {
 		this.next = next;
 		this.alternateNext = alternateNext;
-		this.duration = new Fraction(0);
-		this.notes = new ArrayList<Pair<Note, Fraction>>();
 	}
 
 	/**
@@ -109,6 +143,35 @@ public class Measure implements Iterable<Measure> {
 	 */
 	public void setNext(Measure next) {
 		this.next = next;
+		this.modified();
+	}
+
+	/**
+	 * @return the number of changes made to this measure so far.
+	 */
+	int getModCount() {
+		return this.modCount;
+	}
+
+	/**
+	 * @return the Voice told of changes to this measure, if any.
+	 */
+	Voice getVoice() {
+		return this.voice;
+	}
+
+	/**
+	 * Has voice told of every later change to this measure.
+	 */
+	void setVoice(Voice voice) {
+		this.voice = voice;
+	}
+
+	private void modified() {
+		this.modCount++;
+		this.smallestDivision = null;
+		if (this.voice != null)
+			this.voice.measureChanged();
 	}
 
 	/**
@@ -125,17 +188,94 @@ public class Measure implements Iterable<Measure> {
 	 */
 	public void setAlternateNext(Measure alternateNext) {
 		this.alternateNext = alternateNext;
+		this.modified();
 	}
 
 	/**
-	 * Getter for this.notes
+	 * Getter for the notes.
 	 * 
-	 * @return a List of the Note / Time pairs. This list is a shallow copy of
-	 *         this.notes, but both Note and Fraction are immutable, so it
-	 *         should pose no risk.
+	 * @return a new List of the Note / Time pairs. Building it allocates for
+	 *         every note, so code that reads many measures should use the
+	 *         indexed accessors below instead.
 	 */
 	public List<Pair<Note, Fraction>> getNotes() {
-		return new ArrayList<Pair<Note, Fraction>>(notes);
+		List<Pair<Note, Fraction>> notes = new ArrayList<Pair<Note, Fraction>>(
+				this.noteCount);
+		for (int i = 0; i < this.noteCount; i++) {
+			notes.add(new Pair<Note, Fraction>(new Note(Fraction.valueOf(
+					this.durationNumerators[i], this.durationDenominators[i]),
+					Pitch.fromPacked(this.pitches[i])), Fraction.valueOf(this.startNumerators[i],
+					this.startDenominators[i])));
+		}
+		return notes;
+	}
+
+	/**
+	 * @return the number of notes (not counting rests) in this measure.
+	 */
+	public int getNoteCount() {
+		return this.noteCount;
+	}
+
+	/**
+	 * @return the pitch of the index-th note, in the order notes were added.
+	 */
+	public Pitch getPitch(int index) {
+		return Pitch.fromPacked(this.getPackedPitch(index));
+	}
+
+	/**
+	 * @return the pitch of the index-th note, as Pitch.toPacked gives it.
+	 */
+	public int getPackedPitch(int index) {
+		this.checkIndex(index);
+		return this.pitches[index];
+	}
+
+	/**
+	 * @return the MIDI note of the index-th note's pitch.
+	 */
+	public int getMidiNote(int index) {
+		return Pitch.toMidiNote(this.getPackedPitch(index));
+	}
+
+	/**
+	 * @return the numerator of the index-th note's start time, with respect
+	 *         to the start of the measure, in least terms.
+	 */
+	public int getStartNumerator(int index) {
+		this.checkIndex(index);
+		return this.startNumerators[index];
+	}
+
+	/**
+	 * @return the denominator of the index-th note's start time.
+	 */
+	public int getStartDenominator(int index) {
+		this.checkIndex(index);
+		return this.startDenominators[index];
+	}
+
+	/**
+	 * @return the numerator of the index-th note's duration, in least terms.
+	 */
+	public int getDurationNumerator(int index) {
+		this.checkIndex(index);
+		return this.durationNumerators[index];
+	}
+
+	/**
+	 * @return the denominator of the index-th note's duration.
+	 */
+	public int getDurationDenominator(int index) {
+		this.checkIndex(index);
+		return this.durationDenominators[index];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= this.noteCount)
+			throw new IndexOutOfBoundsException("Note " + index + " of "
+					+ this.noteCount + ".");
 	}
 
 	/**
@@ -149,45 +289,122 @@ public class Measure implements Iterable<Measure> {
 	 */
 	public void addNote(Note note, Fraction startTime)
 			throws NoteOutOfBoundsException {
+		if (startTime == null)
+			throw new NoteOutOfBoundsException("You must provide a positive (i.e. non-null) start time.");
+		this.addNote(note, startTime.numerator, startTime.denominator);
+	}
+
+	/**
+	 * As above, with the start time held in an accumulator, so that a caller
+	 * adding up note lengths need not build a Fraction for each note.
+	 */
+	public void addNote(Note note, MutableFraction startTime)
+			throws NoteOutOfBoundsException {
+		if (startTime == null)
+			throw new NoteOutOfBoundsException("You must provide a positive (i.e. non-null) start time.");
+		this.addNote(note, startTime.getNumerator(), startTime.getDenominator());
+	}
+
+	/**
+	 * As above, with the start time startNumerator / startDenominator in
+	 * least terms.
+	 */
+	private void addNote(Note note, long startNumerator, long startDenominator)
+			throws NoteOutOfBoundsException {
 		
 		if( note == null )
 			throw new NoteOutOfBoundsException("Cannot add note = null...");
 		
-		if (startTime == null)
-			throw new NoteOutOfBoundsException("You must provide a positive (i.e. non-null) start time.");
 		if ( note.duration == null )
 			throw new NoteOutOfBoundsException("You must provide a positive (i.e. non-null) duration.");
 
 		// Check to ensure the note is fully within the measure...
 		// Check to ensure it starts after 0...
-		if (startTime.numerator < 0)
+		if (startNumerator < 0)
 			throw new NoteOutOfBoundsException(
-					"Tried to add a note that started at negative time" + startTime + ".");
+					"Tried to add a note that started at negative time"
+							+ Fraction.valueOf(startNumerator, startDenominator) + ".");
 		if (note.duration.numerator <= 0)
 			throw new NoteOutOfBoundsException(
 					"Tried to add a non-positive duration note.");
-		Fraction endTime = startTime.plus(note.duration);
-		if (endTime.minus(this.duration).isPositive())
-			this.duration = endTime;
+		if (startNumerator > Integer.MAX_VALUE
+				|| startDenominator > Integer.MAX_VALUE
+				|| note.duration.numerator > Integer.MAX_VALUE
+				|| note.duration.denominator > Integer.MAX_VALUE)
+			throw new NoteOutOfBoundsException(
+					"Tried to add a note too finely divided to store.");
+		this.modified();
+		// The end time is at most about 2^62, so these cannot overflow.
+		long endNumerator = startNumerator * note.duration.denominator
+				+ note.duration.numerator * startDenominator;
+		long endDenominator = startDenominator * note.duration.denominator;
+		if (this.duration.compareTo(endNumerator, endDenominator) < 0) {
+			this.duration.set(endNumerator, endDenominator);
+			this.durationValue = null;
+		}
 		
 		// Rests have null pitch. We don't actually want to add them.
 		if (note.pitch == null)
 			return;
 
-		this.notes.add(new Pair<Note, Fraction>(note, startTime));
+		this.noteDivision.gcd(note.duration.numerator, note.duration.denominator)
+				.gcd(startNumerator, startDenominator);
+		if (this.noteCount == this.pitches.length)
+			this.grow();
+		int i = this.noteCount++;
+		this.pitches[i] = note.pitch.toPacked();
+		this.startNumerators[i] = (int) startNumerator;
+		this.startDenominators[i] = (int) startDenominator;
+		this.durationNumerators[i] = (int) note.duration.numerator;
+		this.durationDenominators[i] = (int) note.duration.denominator;
+	}
+
+	private void grow() {
+		int capacity = Math.max(4, 2 * this.pitches.length);
+		this.pitches = Arrays.copyOf(this.pitches, capacity);
+		this.startNumerators = Arrays.copyOf(this.startNumerators, capacity);
+		this.startDenominators = Arrays.copyOf(this.startDenominators, capacity);
+		this.durationNumerators = Arrays.copyOf(this.durationNumerators, capacity);
+		this.durationDenominators = Arrays.copyOf(this.durationDenominators, capacity);
 	}
 	
+	/**
+	 * Removes every note, leaving the linking structure alone, so that the
+	 * measure's contents can be parsed again.
+	 */
+	void clearNotes() {
+		this.modified();
+		this.noteCount = 0;
+		this.noteDivision.clear();
+		this.duration.clear();
+		this.durationValue = null;
+	}
+
     public String toString(){
-        return notes.toString();
+        StringBuilder string = new StringBuilder("[");
+        for (int i = 0; i < this.noteCount; i++) {
+            if (i > 0)
+                string.append(", ");
+            string.append("< ")
+                    .append(Fraction.valueOf(this.durationNumerators[i], this.durationDenominators[i]))
+                    .append(' ').append(Pitch.fromPacked(this.pitches[i])).append(", ")
+                    .append(Fraction.valueOf(this.startNumerators[i], this.startDenominators[i]))
+                    .append(" >");
+        }
+        return string.append(']').toString();
     }
 
+	/**
+	 * @return the greatest division of which the duration of this measure,
+	 *         and every note's start time and duration, are multiples. Kept
+	 *         up to date as notes are added, so this costs nothing after the
+	 *         first call.
+	 */
 	public Fraction getSmallestDivision() {
-		Fraction smallestDivision = this.duration;
-		for( Pair<Note, Fraction> pair  : this.notes ) {
-			smallestDivision = Fraction.gcd( smallestDivision, pair.first.duration );
-			smallestDivision = Fraction.gcd( smallestDivision, pair.second );
-		}
-		return smallestDivision;
+		if (this.smallestDivision == null)
+			this.smallestDivision = Fraction.gcd(this.getDuration(),
+					this.noteDivision.toFraction());
+		return this.smallestDivision;
 	}
 
 }
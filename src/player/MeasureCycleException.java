@@ -0,0 +1,22 @@
+package player;
+
+/**
+ * Thrown when a linking structure of Measures would be played forever, or
+ * for longer than any piece of its size could reasonably last, e.g. after a
+ * close repeat was linked back to the wrong measure.
+ * 
+ * @author woursler
+ * @version RC1
+ */
+@SuppressWarnings("serial")
+public class MeasureCycleException extends RuntimeException {
+	/**
+	 * Basic constructor.
+	 * 
+	 * @param message
+	 *            a Human Readable error message.
+	 */
+	public MeasureCycleException(String message) {
+		super(message);
+	}
+}
@@ -1,24 +1,63 @@
 package player;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Plays through a linking structure of Measures: a measure with an alternate
+ * next goes on to its next the first time it is played, to its alternate the
+ * second time, and so on.
+ * 
+ * On construction every measure reachable from the start is numbered, so
+ * that iterating needs no hashing: the links and the number of times each
+ * measure has been played are kept in arrays indexed by those numbers.
+ * 
+ * A well formed structure is played in a bounded number of steps. If the
+ * iteration runs longer than that, or goes round a loop that has no way
+ * out, next() throws a MeasureCycleException instead of going on forever.
+ */
 public class MeasureIterator implements Iterator<Measure> {
+
+	/**
+	 * Marks a missing link in next and alternateNext.
+	 */
+	private static final int NONE = -1;
+
 	/**
-	 * The measure we are currently initialized with.
+	 * The most repeat levels the step bound allows for. Each level may double
+	 * how often the measures inside it are played.
 	 */
-	Measure start;
+	private static final int MAX_REPEAT_DEPTH = 10;
 
 	/**
-	 * The measure we are currently concerned with.
+	 * Every measure reachable from the start, which is measure 0, and the
+	 * numbers of each one's next and alternate next measures.
 	 */
-	Measure current;
+	private final Measure[] measures;
+	private final int[] next;
+	private final int[] alternateNext;
 
 	/**
-	 * A Map containing how many times we have seen each measure by reference.
+	 * How many times we have left each measure so far.
 	 */
-	Map<Measure, Integer> timesSeen;
+	private final int[] timesSeen;
+
+	/**
+	 * The number of the measure we are currently concerned with, or NONE if
+	 * we have yet to begin iterating.
+	 */
+	private int current = NONE;
+
+	/**
+	 * Steps taken so far, the most that may be taken, and steps taken since
+	 * the last measure with an alternate next.
+	 */
+	private long steps;
+	private final long maxSteps;
+	private int stepsSinceBranch;
 
 	/**
 	 * Constructor
@@ -27,61 +66,106 @@ public class MeasureIterator implements Iterator<Measure> {
 	 *            The first Measure of the music we will iterate through.
 	 */
 	public MeasureIterator(Measure start) {
-		this.start = start;
-		this.current = null;
-		this.timesSeen = new HashMap<Measure, Integer>();
+		Map<Measure, Integer> ids = new IdentityHashMap<Measure, Integer>();
+		List<Measure> measures = new ArrayList<Measure>();
+		int branches = 0;
+		if (start != null) {
+			ids.put(start, 0);
+			measures.add(start);
+		}
+		// Number the measures breadth first.
+		for (int i = 0; i < measures.size(); i++) {
+			Measure measure = measures.get(i);
+			if (measure.getAlternateNext() != null)
+				branches++;
+			for (Measure link : new Measure[] { measure.getNext(),
+					measure.getAlternateNext() }) {
+				if (link != null && !ids.containsKey(link)) {
+					ids.put(link, measures.size());
+					measures.add(link);
+				}
+			}
+		}
+
+		int count = measures.size();
+		this.measures = measures.toArray(new Measure[count]);
+		this.next = new int[count];
+		this.alternateNext = new int[count];
+		this.timesSeen = new int[count];
+		for (int i = 0; i < count; i++) {
+			this.next[i] = id(ids, this.measures[i].getNext());
+			this.alternateNext[i] = id(ids, this.measures[i].getAlternateNext());
+		}
+		this.maxSteps = ((long) count + 1) << Math.min(branches,
+				MAX_REPEAT_DEPTH);
+	}
+
+	private static int id(Map<Measure, Integer> ids, Measure measure) {
+		return measure == null ? NONE : ids.get(measure);
 	}
 
 	public boolean hasNext() {
 
 		// Somewhat amusingly, this only occurs when we have yet to begin
 		// iterating, which implies we do have a next element.
-		if (this.current == null)
+		if (this.current == NONE)
 			return true;
 
 		// This will happen at the end of the piece. We will never have that we
 		// do not have a next, but we do have an alternative.
-		if (this.current.getNext() == null)
-			return false;
-
-		// We do have an explicit next element, so return true.
-		return true;
+		return this.next[this.current] != NONE;
 	}
 
+	/**
+	 * @return the next measure played, or null at the end of the piece.
+	 * @throws MeasureCycleException
+	 *             if the linking structure would be played forever, or for
+	 *             too long.
+	 */
 	public Measure next() {
 
-		// TODO: Detect infinite / invalid linking structures.
-
 		// If we're just starting out...
-		if (this.current == null) {
-			this.current = this.start;
-			return this.current;
+		if (this.current == NONE) {
+			if (this.measures.length == 0)
+				return null;
+			this.current = 0;
+			return this.measures[0];
 		}
 
 		// If we're at the end(this shouldn't get called, really).
 		if (!this.hasNext())
 			return null;
 
+		if (++this.steps > this.maxSteps)
+			throw new MeasureCycleException("Played " + this.maxSteps
+					+ " measures without reaching the end of "
+					+ this.measures.length + ".");
+
 		// Increment the number of times that we've seen this measure.
-		int timesSeenBefore = 1;
-		if (this.timesSeen.containsKey(this.current))
-			timesSeenBefore += this.timesSeen.get(this.current);
-		this.timesSeen.put(this.current, timesSeenBefore);
+		int timesSeenBefore = ++this.timesSeen[this.current];
 
 		// Now we need to check which branch we should take...
 
 		// If the measure isn't a branching one we always take the first branch.
-		if (this.current.getAlternateNext() == null)
-			this.current = this.current.getNext();
+		// Going round every measure without meeting a branch means we are in a
+		// loop that never ends.
+		if (this.alternateNext[this.current] == NONE) {
+			if (++this.stepsSinceBranch > this.measures.length)
+				throw new MeasureCycleException(
+						"Measures repeat forever: a repeat has no way out.");
+			this.current = this.next[this.current];
+			return this.measures[this.current];
+		}
+		this.stepsSinceBranch = 0;
 		// If we've seen this particular measure an odd number of times, we
 		// should take it's first branch (e.g. the first time we see it.)
-		else if (timesSeenBefore % 2 == 1)
-			this.current = this.current.getNext();
+		if (timesSeenBefore % 2 == 1)
+			this.current = this.next[this.current];
 		// If we've seen it an even number of times, take the alternate branch.
 		else
-			this.current = this.current.getAlternateNext();
+			this.current = this.alternateNext[this.current];
 
-		return this.current;
+		return this.measures[this.current];
 	}
 
 	/**
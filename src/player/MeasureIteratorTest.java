@@ -8,7 +8,8 @@ import org.junit.Test;
 
 /**
  * JUnit testing for MeasureIterator.
- * Strategy: make sure that measure structure remains valid
+ * Strategy: make sure that measure structure remains valid, and that
+ * structures which would play forever are reported rather than followed
  * 
  * @author woursler
  * @version RC1
@@ -99,4 +100,40 @@ public class MeasureIteratorTest {
 		assertEquals(i.next(), null);
 
 	}
+
+	@Test(expected = MeasureCycleException.class)
+	public void loopWithNoWayOut() {
+		// m1 | m2 | m3 :| with m3 going back to m2 every time
+
+		Measure m1 = new Measure(null);
+		Measure m2 = new Measure(null);
+		Measure m3 = new Measure(null);
+		m1.setNext(m2);
+		m2.setNext(m3);
+		m3.setNext(m2);
+
+		Iterator<Measure> i = m1.iterator();
+		for (int steps = 0; steps < 100; steps++)
+			i.next();
+	}
+
+	@Test(expected = MeasureCycleException.class)
+	public void branchesThatNeverEnd() {
+		// m1 |: m2 :| m3 :| where m3 goes back into the repeat it left
+
+		Measure m1 = new Measure(null);
+		Measure m2 = new Measure(null);
+		Measure m3 = new Measure(null);
+		Measure m4 = new Measure(null);
+		m1.setNext(m2);
+		m2.setNext(m2);
+		m2.setAlternateNext(m3);
+		m3.setNext(m2);
+		m3.setAlternateNext(m4);
+		m4.setNext(m2);
+
+		Iterator<Measure> i = m1.iterator();
+		for (int steps = 0; steps < 1000; steps++)
+			i.next();
+	}
 }
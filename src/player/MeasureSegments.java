@@ -0,0 +1,113 @@
+package player;
+
+/**
+ * Records, while a piece is parsed, which runs of tokens were parsed into
+ * which Measure. Each call to Parser.parseMeasureContents makes one segment,
+ * and a Measure may be filled by several: a voice resumed on a later line
+ * continues its last measure, and the contents on either side of a [1 or [2
+ * share a measure.
+ *
+ * Segments are kept in token order as parallel arrays, so the segment an
+ * edit falls into can be found with a binary search.
+ *
+ * @author woursler
+ * @version beta
+ */
+class MeasureSegments {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private Measure[] measures = new Measure[INITIAL_CAPACITY];
+	private int[] starts = new int[INITIAL_CAPACITY];
+	private int[] ends = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Whether the segment was begun by the music loop of
+	 * Parser.parseHeaderInfo, rather than after a bar inside
+	 * parseMeasureStructure.
+	 */
+	private boolean[] lineStarts = new boolean[INITIAL_CAPACITY];
+
+	private int count = 0;
+
+	/**
+	 * Records that tokens [start, end) were parsed into measure.
+	 */
+	void add(Measure measure, int start, int end, boolean lineStart) {
+		if (this.count == this.measures.length)
+			this.grow();
+		this.measures[this.count] = measure;
+		this.starts[this.count] = start;
+		this.ends[this.count] = end;
+		this.lineStarts[this.count] = lineStart;
+		this.count++;
+	}
+
+	int size() {
+		return this.count;
+	}
+
+	Measure measure(int segment) {
+		return this.measures[segment];
+	}
+
+	int start(int segment) {
+		return this.starts[segment];
+	}
+
+	int end(int segment) {
+		return this.ends[segment];
+	}
+
+	boolean isLineStart(int segment) {
+		return this.lineStarts[segment];
+	}
+
+	/**
+	 * @return the segment that holds all of tokens [first, first + length),
+	 *         where an empty range may also sit at the very end of a
+	 *         segment; or -1 if there is none.
+	 */
+	int find(int first, int length) {
+		int low = 0;
+		int high = this.count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (this.starts[middle] <= first)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		int segment = low - 1;
+		if (segment < 0 || first + length > this.ends[segment])
+			return -1;
+		return segment;
+	}
+
+	/**
+	 * Adjusts token positions after segment grew by delta tokens.
+	 */
+	void resize(int segment, int delta) {
+		this.ends[segment] += delta;
+		for (int i = segment + 1; i < this.count; i++) {
+			this.starts[i] += delta;
+			this.ends[i] += delta;
+		}
+	}
+
+	private void grow() {
+		int capacity = this.measures.length * 2;
+		Measure[] measures = new Measure[capacity];
+		int[] starts = new int[capacity];
+		int[] ends = new int[capacity];
+		boolean[] lineStarts = new boolean[capacity];
+		System.arraycopy(this.measures, 0, measures, 0, this.count);
+		System.arraycopy(this.starts, 0, starts, 0, this.count);
+		System.arraycopy(this.ends, 0, ends, 0, this.count);
+		System.arraycopy(this.lineStarts, 0, lineStarts, 0, this.count);
+		this.measures = measures;
+		this.starts = starts;
+		this.ends = ends;
+		this.lineStarts = lineStarts;
+	}
+}
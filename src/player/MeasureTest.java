@@ -0,0 +1,66 @@
+package player;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import sound.Pitch;
+import utilities.Fraction;
+import utilities.Pair;
+
+/**
+ * JUnit testing for Measure.
+ * Strategy: the indexed note accessors must agree with getNotes, rests must
+ * only stretch the duration, and a measure must keep any number of notes.
+ *
+ * @author woursler
+ * @version RC1
+ */
+public class MeasureTest {
+
+	@Test
+	public void indexedAccessorsAgreeWithGetNotes() throws NoteOutOfBoundsException {
+		Measure measure = new Measure();
+		measure.addNote(new Note(new Fraction(1, 4), new Pitch('C')), new Fraction(0));
+		measure.addNote(new Note(new Fraction(1, 8), null), new Fraction(1, 4));
+		measure.addNote(new Note(new Fraction(3, 8), new Pitch('F').transpose(1)), new Fraction(3, 8));
+
+		assertEquals(2, measure.getNoteCount());
+		assertEquals(new Fraction(3, 4), measure.getDuration());
+		List<Pair<Note, Fraction>> notes = measure.getNotes();
+		assertEquals(2, notes.size());
+		for (int i = 0; i < measure.getNoteCount(); i++) {
+			Note note = notes.get(i).first;
+			Fraction start = notes.get(i).second;
+			assertEquals(note.pitch, measure.getPitch(i));
+			assertEquals(note.pitch.toMidiNote(), measure.getMidiNote(i));
+			assertEquals(start.numerator, measure.getStartNumerator(i));
+			assertEquals(start.denominator, measure.getStartDenominator(i));
+			assertEquals(note.duration.numerator, measure.getDurationNumerator(i));
+			assertEquals(note.duration.denominator, measure.getDurationDenominator(i));
+		}
+		assertEquals(66, measure.getMidiNote(1));
+		assertEquals("[< ( 1 / 4 ) C, ( 0 / 1 ) >, < ( 3 / 8 ) ^F, ( 3 / 8 ) >]",
+				measure.toString());
+	}
+
+	@Test
+	public void manyNotes() throws NoteOutOfBoundsException {
+		Measure measure = new Measure();
+		for (int i = 0; i < 100; i++)
+			measure.addNote(new Note(new Fraction(1, 8), new Pitch('A').transpose(i % 12)), new Fraction(i, 8));
+		assertEquals(100, measure.getNoteCount());
+		assertEquals(100, measure.getNotes().size());
+		assertEquals(new Fraction(99, 8).numerator, measure.getStartNumerator(99));
+		assertEquals(new Pitch('A').transpose(99 % 12), measure.getPitch(99));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void indexPastLastNote() throws NoteOutOfBoundsException {
+		Measure measure = new Measure();
+		measure.addNote(new Note(new Fraction(1, 4), new Pitch('C')), new Fraction(0));
+		measure.getMidiNote(1);
+	}
+}
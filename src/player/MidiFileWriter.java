@@ -0,0 +1,256 @@
+package player;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import sound.NoteBatch;
+
+/**
+ * Writes pieces as Standard MIDI Files, straight to bytes, without the
+ * javax.sound.midi sequencer or synthesizer, so it works where there is no
+ * sound system at all.
+ *
+ * Format 0 puts every voice in one track. Format 1 puts the title and tempo,
+ * if the piece has them, in a first track and each voice, even one without
+ * notes, in a track of its own named after it. The notes are the ones
+ * SequencePlayer plays: a note-on and a note-off of velocity 100 on channel 0
+ * for each, in the order PieceVisitor schedules them. Events use running
+ * status, so a run of note-ons or of note-offs repeats no status byte.
+ *
+ * A writer reuses its buffer from one file to the next, so it is not safe to
+ * share between threads.
+ *
+ * Usage: java player.MidiFileWriter input.abc output.mid [format]
+ *
+ * @author woursler
+ * @version beta
+ */
+public class MidiFileWriter {
+
+	private static final int NOTE_OFF = 0x80;
+	private static final int NOTE_ON = 0x90;
+	private static final int CHANNEL = 0;
+	private static final int VELOCITY = 100;
+
+	private static final int META = 0xFF;
+	private static final int META_TRACK_NAME = 0x03;
+	private static final int META_END_OF_TRACK = 0x2F;
+	private static final int META_TEMPO = 0x51;
+
+	/**
+	 * The largest delta time a variable length quantity may hold.
+	 */
+	private static final long MAX_DELTA = 0x0FFFFFFF;
+
+	private static final Charset NAME_CHARSET = Charset.forName("ISO-8859-1");
+
+	private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+	/**
+	 * The notes of the track being written.
+	 */
+	private final NoteBatch notes = new NoteBatch();
+
+	/**
+	 * The status byte of the last event written to the track, or -1 if there
+	 * is none that running status may follow.
+	 */
+	private int runningStatus;
+
+	/**
+	 * Compiles piece and writes it, with its title, as a MIDI file.
+	 *
+	 * @param format
+	 *            0 or 1
+	 * @return the file, from position 0 to the limit. It is only valid until
+	 *         the next call on this writer.
+	 * @throws IllegalArgumentException
+	 *             if format is not 0 or 1, or the piece cannot be written as
+	 *             a MIDI file: its resolution or tempo are out of range, or it
+	 *             has a gap of more than 2^28 - 1 ticks.
+	 */
+	public ByteBuffer write(Piece piece, int format) {
+		return this.write(Timeline.compile(piece), piece.getTitle(), format);
+	}
+
+	/**
+	 * As above, for a piece already compiled, without a title.
+	 */
+	public ByteBuffer write(Timeline timeline, int format) {
+		return this.write(timeline, null, format);
+	}
+
+	/**
+	 * As write(Piece, int), writing the file to out, which is not closed.
+	 */
+	public void write(Piece piece, int format, OutputStream out)
+			throws IOException {
+		ByteBuffer file = this.write(piece, format);
+		out.write(file.array(), file.arrayOffset(), file.limit());
+	}
+
+	private ByteBuffer write(Timeline timeline, String title, int format) {
+		if (format != 0 && format != 1)
+			throw new IllegalArgumentException("No such MIDI file format: "
+					+ format);
+		int division = timeline.getTicksPerQuarterNote();
+		if (division > 0x7FFF)
+			throw new IllegalArgumentException("Too many ticks per quarter note for a MIDI file: "
+					+ division);
+		int beatsPerMinute = timeline.getBeatsPerMinute();
+		// The tempo is microseconds per quarter note, in 24 bits. A piece
+		// without one gets none, and players use their default of 120.
+		if (beatsPerMinute != 0 && beatsPerMinute < 4)
+			throw new IllegalArgumentException("Tempo too slow for a MIDI file: "
+					+ beatsPerMinute);
+
+		this.buffer.clear();
+		int voices = timeline.getVoiceCount();
+		int tracks = format == 0 ? 1 : voices + 1;
+		this.ensureCapacity(14);
+		this.buffer.put((byte) 'M').put((byte) 'T').put((byte) 'h')
+				.put((byte) 'd').putInt(6).putShort((short) format)
+				.putShort((short) tracks).putShort((short) division);
+
+		int start = this.startTrack();
+		if (title != null)
+			this.writeName(title);
+		if (beatsPerMinute != 0) {
+			int tempo = 60000000 / beatsPerMinute;
+			this.ensureCapacity(7);
+			this.buffer.put((byte) 0).put((byte) META)
+					.put((byte) META_TEMPO).put((byte) 3)
+					.put((byte) (tempo >>> 16)).put((byte) (tempo >>> 8))
+					.put((byte) tempo);
+		}
+		if (format == 0) {
+			this.writeNotes(timeline, 0, voices);
+			this.endTrack(start);
+		} else {
+			this.endTrack(start);
+			for (int v = 0; v < voices; v++) {
+				start = this.startTrack();
+				String name = timeline.getVoiceName(v);
+				if (name != null)
+					this.writeName(name);
+				this.writeNotes(timeline, v, v + 1);
+				this.endTrack(start);
+			}
+		}
+		this.buffer.flip();
+		return this.buffer;
+	}
+
+	/**
+	 * Writes the chunk header of a track, leaving its length to endTrack.
+	 *
+	 * @return the position of the length.
+	 */
+	private int startTrack() {
+		this.ensureCapacity(8);
+		this.buffer.put((byte) 'M').put((byte) 'T').put((byte) 'r')
+				.put((byte) 'k').putInt(0);
+		this.runningStatus = -1;
+		return this.buffer.position() - 4;
+	}
+
+	private void endTrack(int lengthPosition) {
+		this.ensureCapacity(4);
+		this.buffer.put((byte) 0).put((byte) META)
+				.put((byte) META_END_OF_TRACK).put((byte) 0);
+		this.buffer.putInt(lengthPosition, this.buffer.position()
+				- lengthPosition - 4);
+	}
+
+	private void writeName(String name) {
+		byte[] bytes = name.getBytes(NAME_CHARSET);
+		this.ensureCapacity(3 + 4 + bytes.length);
+		this.buffer.put((byte) 0).put((byte) META)
+				.put((byte) META_TRACK_NAME);
+		this.writeVariableLength(bytes.length);
+		this.buffer.put(bytes);
+		// Meta events cancel running status.
+		this.runningStatus = -1;
+	}
+
+	/**
+	 * Writes the notes of voices first up to last as one track's events, in
+	 * the order of a NoteBatch they were added to voice by voice.
+	 */
+	private void writeNotes(Timeline timeline, int first, int last) {
+		NoteBatch notes = this.notes.clear();
+		for (int v = first; v < last; v++) {
+			for (int i = 0; i < timeline.getNoteCount(v); i++)
+				notes.add(timeline.getMidiNote(v, i),
+						timeline.getStartTick(v, i),
+						timeline.getLengthTicks(v, i));
+		}
+		long tick = 0;
+		for (int e = 0; e < notes.getEventCount(); e++) {
+			long delta = notes.getTick(e) - tick;
+			if (delta > MAX_DELTA)
+				throw new IllegalArgumentException("Gap of " + delta
+						+ " ticks too long for a MIDI file");
+			tick += delta;
+			int status = (notes.isNoteOn(e) ? NOTE_ON : NOTE_OFF) | CHANNEL;
+			this.ensureCapacity(4 + 3);
+			this.writeVariableLength((int) delta);
+			if (status != this.runningStatus)
+				this.buffer.put((byte) status);
+			this.runningStatus = status;
+			this.buffer.put((byte) notes.getNote(e)).put((byte) VELOCITY);
+		}
+	}
+
+	/**
+	 * Writes value, which must be below 2^28, in as few 7 bit groups as it
+	 * fits, most significant first, each but the last with its top bit set.
+	 */
+	private void writeVariableLength(int value) {
+		if (value >= 1 << 21)
+			this.buffer.put((byte) (0x80 | (value >>> 21)));
+		if (value >= 1 << 14)
+			this.buffer.put((byte) (0x80 | (value >>> 14)));
+		if (value >= 1 << 7)
+			this.buffer.put((byte) (0x80 | (value >>> 7)));
+		this.buffer.put((byte) (value & 0x7F));
+	}
+
+	/**
+	 * Makes room for at least bytes more in the buffer, keeping its contents.
+	 */
+	private void ensureCapacity(int bytes) {
+		if (this.buffer.remaining() >= bytes)
+			return;
+		int capacity = Math.max(this.buffer.capacity() * 2,
+				this.buffer.position() + bytes);
+		ByteBuffer bigger = ByteBuffer.allocate(capacity);
+		this.buffer.flip();
+		bigger.put(this.buffer);
+		this.buffer = bigger;
+	}
+
+	/**
+	 * Converts an abc file to a MIDI file.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: java player.MidiFileWriter input.abc output.mid [format]");
+			return;
+		}
+		int format = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		Piece piece = Parser.parse(new String(Files.readAllBytes(Paths
+				.get(args[0])), Charset.forName("UTF-8")));
+		OutputStream out = new FileOutputStream(args[1]);
+		try {
+			new MidiFileWriter().write(piece, format, out);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package player;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+import sound.Pitch;
+
+/**
+ * JUnit testing for MidiFileWriter.
+ * Strategy: a small piece must come out byte for byte as a hand written
+ * file, with running status inside a chord. Bigger pieces, read back with
+ * javax.sound.midi's file reader, must have the resolution, tempo, tracks and
+ * notes in the order PieceVisitor would schedule them, in both formats. The
+ * buffer must be reusable.
+ *
+ * @author woursler
+ * @version RC1
+ */
+public class MidiFileWriterTest {
+
+	private static final String VOICES = "X:1\nT:Voices\nM:4/4\nL:1/8\nQ:200\n"
+			+ "V:1\nV:2\nV:3\nK:G\n"
+			+ "V:1\n|:[C2E2G2] (3ABc d4|e8:|\n"
+			+ "V:2\nC,4 G,4|[1z2 A,2 B,4:|[2C8|]\n"
+			+ "V:3\nc/d/e/f/ g2 (3abc' d'2|C2D2E2F2|\n";
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return the note events of voices first up to last, as "tick on/off
+	 *         note", in the order PieceVisitor would schedule them.
+	 */
+	private static List<String> expectedNotes(Timeline timeline, int first,
+			int last) {
+		List<long[]> events = new ArrayList<long[]>();
+		for (int v = first; v < last; v++) {
+			for (int i = 0; i < timeline.getNoteCount(v); i++) {
+				long start = timeline.getStartTick(v, i);
+				int note = timeline.getMidiNote(v, i);
+				events.add(new long[] { start, ShortMessage.NOTE_ON, note });
+				events.add(new long[] {
+						start + timeline.getLengthTicks(v, i),
+						ShortMessage.NOTE_OFF, note });
+			}
+		}
+		// Insertion sort, which is stable, by tick, then note-offs first.
+		for (int i = 1; i < events.size(); i++) {
+			for (int j = i; j > 0 && after(events.get(j - 1), events.get(j)); j--)
+				events.set(j, events.set(j - 1, events.get(j)));
+		}
+		List<String> notes = new ArrayList<String>();
+		for (long[] event : events)
+			notes.add(event[0] + " " + event[1] + " " + event[2]);
+		return notes;
+	}
+
+	private static boolean after(long[] a, long[] b) {
+		return a[0] > b[0] || (a[0] == b[0] && a[1] > b[1]);
+	}
+
+	private static List<String> notes(Track track) {
+		List<String> notes = new ArrayList<String>();
+		for (int i = 0; i < track.size(); i++) {
+			MidiEvent event = track.get(i);
+			if (event.getMessage() instanceof ShortMessage) {
+				ShortMessage message = (ShortMessage) event.getMessage();
+				assertEquals(0, message.getChannel());
+				assertEquals(100, message.getData2());
+				notes.add(event.getTick() + " " + message.getCommand() + " "
+						+ message.getData1());
+			}
+		}
+		return notes;
+	}
+
+	private static String name(Track track) {
+		MetaMessage message = (MetaMessage) track.get(0).getMessage();
+		assertEquals(0x03, message.getType());
+		return new String(message.getData());
+	}
+
+	@Test
+	public void smallPiece() throws Exception {
+		ByteBuffer file = new MidiFileWriter().write(Parser
+				.parse("X:1\nT:t\nM:4/4\nL:1/4\nQ:120\nK:C\n[CE] D|\n"), 0);
+		byte c = (byte) new Pitch('C').toMidiNote();
+		byte d = (byte) new Pitch('D').toMidiNote();
+		byte e = (byte) new Pitch('E').toMidiNote();
+		byte[] expected = { 'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, 0, 1,
+				'M', 'T', 'r', 'k', 0, 0, 0, 38,
+				0, (byte) 0xFF, 0x03, 1, 't',
+				// 500000 microseconds per quarter note is 120 per minute.
+				0, (byte) 0xFF, 0x51, 3, 0x07, (byte) 0xA1, 0x20,
+				0, (byte) 0x90, c, 100, 0, e, 100,
+				1, (byte) 0x80, c, 100, 0, e, 100,
+				0, (byte) 0x90, d, 100,
+				1, (byte) 0x80, d, 100,
+				0, (byte) 0xFF, 0x2F, 0 };
+		assertArrayEquals(expected, bytes(file));
+	}
+
+	@Test
+	public void multiTrack() throws Exception {
+		Piece piece = Parser.parse(VOICES);
+		Timeline timeline = Timeline.compile(piece);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new MidiFileWriter().write(piece, 1, out);
+		Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(
+				out.toByteArray()));
+
+		assertEquals(Sequence.PPQ, sequence.getDivisionType(), 0);
+		assertEquals(timeline.getTicksPerQuarterNote(),
+				sequence.getResolution());
+		Track[] tracks = sequence.getTracks();
+		assertEquals(4, tracks.length);
+		assertEquals("Voices", name(tracks[0]));
+		MetaMessage tempo = (MetaMessage) tracks[0].get(1).getMessage();
+		assertEquals(0x51, tempo.getType());
+		byte[] data = tempo.getData();
+		assertEquals(60000000 / timeline.getBeatsPerMinute(),
+				((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8)
+						| (data[2] & 0xFF));
+		assertEquals(0, notes(tracks[0]).size());
+		for (int v = 0; v < 3; v++) {
+			assertEquals(timeline.getVoiceName(v), name(tracks[v + 1]));
+			assertEquals(expectedNotes(timeline, v, v + 1),
+					notes(tracks[v + 1]));
+		}
+	}
+
+	@Test
+	public void singleTrack() throws Exception {
+		Timeline timeline = Timeline.compile(Parser.parse(VOICES));
+		Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(
+				bytes(new MidiFileWriter().write(timeline, 0))));
+		assertEquals(1, sequence.getTracks().length);
+		assertEquals(expectedNotes(timeline, 0, 3),
+				notes(sequence.getTracks()[0]));
+	}
+
+	@Test
+	public void reuse() throws Exception {
+		StringBuilder abc = new StringBuilder("X:1\nT:t\nM:4/4\nL:1/8\nK:C\n");
+		for (int i = 0; i < 500; i++)
+			abc.append("[CE]DEF GABc|");
+		Piece big = Parser.parse(abc.toString());
+		Piece small = Parser.parse(VOICES);
+		MidiFileWriter writer = new MidiFileWriter();
+		byte[] first = bytes(writer.write(small, 1));
+		byte[] large = bytes(writer.write(big, 1));
+		Track[] tracks = MidiSystem.getSequence(
+				new ByteArrayInputStream(large)).getTracks();
+		// Without Q: there is no tempo event, just the title.
+		assertEquals(2, tracks[0].size());
+		assertEquals(expectedNotes(Timeline.compile(big), 0, 1),
+				notes(tracks[1]));
+		assertArrayEquals(first, bytes(writer.write(small, 1)));
+		assertArrayEquals(large, bytes(new MidiFileWriter().write(big, 1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noSuchFormat() throws Exception {
+		new MidiFileWriter().write(Parser.parse("X:1\nT:t\nK:C\nC|\n"), 2);
+	}
+}
@@ -2,15 +2,22 @@ package player;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import sound.Pitch;
 import utilities.Fraction;
+import utilities.MutableFraction;
 import utilities.Pair;
 
 import lexer.*;
@@ -18,6 +25,11 @@ import lexer.*;
 /**
  * Class to convert abc files into Piece data structures.
  * 
+ * The static methods are the interface. Each of them keeps the state of its
+ * parse (the key signature, the accidentals of the current measure, the
+ * repeat structure of each voice) in a Parser of its own, so they are safe
+ * to call from several threads at once.
+ * 
  * @author kimtoy, czuo, woursler
  * @version alpha
  */
@@ -40,6 +52,8 @@ public class Parser {
 			Pattern.compile("V:.*\\n"));
 	public final static TokenType FIELD_KEY = new TokenType("FIELD_KEY",
 			Pattern.compile("K:"));
+	public final static TokenType MODE = new TokenType("MODE",
+			Pattern.compile("(?i)(maj|min|ion|dor|phr|lyd|mix|aeo|loc)[a-z]*"));
 	public final static TokenType BASENOTE = new TokenType("BASENOTE",
 			Pattern.compile("[a-gA-G]{1}"));
 	public final static TokenType KEY_ACCIDENTAL = new TokenType(
@@ -90,19 +104,145 @@ public class Parser {
 			Pattern.compile("[\\s]"));
 
 	// compile token types
-	public static TokenType[] typeArray = { FIELD_NUM, FIELD_TITLE, FIELD_COMP,
+	private static final TokenType[] typeArray = { FIELD_NUM, FIELD_TITLE, FIELD_COMP,
 			FIELD_DEFAULT_LEN, FIELD_METER, FIELD_TEMPO, FIELD_VOICE,
-			FIELD_KEY, BASENOTE, KEY_ACCIDENTAL, ACCIDENTAL, MODE_MINOR, METER,
-			OCTAVE, DUPLET, TUPLET, QUADRUPLET, OPEN_REPEAT, CLOSE_REPEAT,
-			DOUBLE_BARLINE, BARLINE, ONE_REPEAT, TWO_REPEAT, FRACTION,
-			FRACTION_NOT_STRICT, DIGITS, REST, OPEN_CHORD, CLOSE_CHORD,
-			COMMENT, NEWLINE, SPACE };
-
-	public static List<TokenType> types = new ArrayList<TokenType>(
-			Arrays.asList(typeArray));
+			FIELD_KEY, MODE, BASENOTE, KEY_ACCIDENTAL, ACCIDENTAL, MODE_MINOR,
+			METER, OCTAVE, DUPLET, TUPLET, QUADRUPLET, OPEN_REPEAT,
+			CLOSE_REPEAT, DOUBLE_BARLINE, BARLINE, ONE_REPEAT, TWO_REPEAT,
+			FRACTION, FRACTION_NOT_STRICT, DIGITS, REST, OPEN_CHORD,
+			CLOSE_CHORD, COMMENT, NEWLINE, SPACE };
+
+	public static final List<TokenType> types = Collections
+			.unmodifiableList(Arrays.asList(typeArray));
+
+	/**
+	 * Lexer over types. Building its dispatch table is not free, and a Lexer
+	 * holds no per-input state, so one is shared by every parse.
+	 */
+	private static final Lexer lexer = new Lexer(types);
+
+	/**
+	 * The pool parseAll uses by default, or null until first used.
+	 */
+	private static ExecutorService tunePool;
+
+	// Type ids of the TokenTypes above, i.e. their positions in typeArray,
+	// so that the parser can switch on TokenBuffer types.
+	private static final int FIELD_NUM_ID = 0;
+	private static final int FIELD_TITLE_ID = 1;
+	private static final int FIELD_COMP_ID = 2;
+	private static final int FIELD_DEFAULT_LEN_ID = 3;
+	private static final int FIELD_METER_ID = 4;
+	private static final int FIELD_TEMPO_ID = 5;
+	private static final int FIELD_VOICE_ID = 6;
+	private static final int FIELD_KEY_ID = 7;
+	private static final int MODE_ID = 8;
+	private static final int BASENOTE_ID = 9;
+	private static final int KEY_ACCIDENTAL_ID = 10;
+	private static final int ACCIDENTAL_ID = 11;
+	private static final int MODE_MINOR_ID = 12;
+	private static final int METER_ID = 13;
+	private static final int OCTAVE_ID = 14;
+	private static final int DUPLET_ID = 15;
+	private static final int TUPLET_ID = 16;
+	private static final int QUADRUPLET_ID = 17;
+	private static final int OPEN_REPEAT_ID = 18;
+	private static final int CLOSE_REPEAT_ID = 19;
+	private static final int DOUBLE_BARLINE_ID = 20;
+	private static final int BARLINE_ID = 21;
+	private static final int ONE_REPEAT_ID = 22;
+	private static final int TWO_REPEAT_ID = 23;
+	private static final int FRACTION_ID = 24;
+	private static final int FRACTION_NOT_STRICT_ID = 25;
+	private static final int DIGITS_ID = 26;
+	private static final int REST_ID = 27;
+	private static final int OPEN_CHORD_ID = 28;
+	private static final int CLOSE_CHORD_ID = 29;
+	private static final int COMMENT_ID = 30;
+	private static final int NEWLINE_ID = 31;
+	private static final int SPACE_ID = 32;
+
+	// The switches on type ids go wrong silently if an id above does not
+	// match its type's position, so check them all once.
+	static {
+		checkId(FIELD_NUM, FIELD_NUM_ID);
+		checkId(FIELD_TITLE, FIELD_TITLE_ID);
+		checkId(FIELD_COMP, FIELD_COMP_ID);
+		checkId(FIELD_DEFAULT_LEN, FIELD_DEFAULT_LEN_ID);
+		checkId(FIELD_METER, FIELD_METER_ID);
+		checkId(FIELD_TEMPO, FIELD_TEMPO_ID);
+		checkId(FIELD_VOICE, FIELD_VOICE_ID);
+		checkId(FIELD_KEY, FIELD_KEY_ID);
+		checkId(MODE, MODE_ID);
+		checkId(BASENOTE, BASENOTE_ID);
+		checkId(KEY_ACCIDENTAL, KEY_ACCIDENTAL_ID);
+		checkId(ACCIDENTAL, ACCIDENTAL_ID);
+		checkId(MODE_MINOR, MODE_MINOR_ID);
+		checkId(METER, METER_ID);
+		checkId(OCTAVE, OCTAVE_ID);
+		checkId(DUPLET, DUPLET_ID);
+		checkId(TUPLET, TUPLET_ID);
+		checkId(QUADRUPLET, QUADRUPLET_ID);
+		checkId(OPEN_REPEAT, OPEN_REPEAT_ID);
+		checkId(CLOSE_REPEAT, CLOSE_REPEAT_ID);
+		checkId(DOUBLE_BARLINE, DOUBLE_BARLINE_ID);
+		checkId(BARLINE, BARLINE_ID);
+		checkId(ONE_REPEAT, ONE_REPEAT_ID);
+		checkId(TWO_REPEAT, TWO_REPEAT_ID);
+		checkId(FRACTION, FRACTION_ID);
+		checkId(FRACTION_NOT_STRICT, FRACTION_NOT_STRICT_ID);
+		checkId(DIGITS, DIGITS_ID);
+		checkId(REST, REST_ID);
+		checkId(OPEN_CHORD, OPEN_CHORD_ID);
+		checkId(CLOSE_CHORD, CLOSE_CHORD_ID);
+		checkId(COMMENT, COMMENT_ID);
+		checkId(NEWLINE, NEWLINE_ID);
+		checkId(SPACE, SPACE_ID);
+	}
+
+	private static void checkId(TokenType type, int id) {
+		if (lexer.idOf(type) != id)
+			throw new IllegalStateException(type.name + " has type id "
+					+ lexer.idOf(type) + ", not " + id);
+	}
+
 	
-	public static HashMap<Pitch, Pitch> accidentalChanges;//map to hold accidental changes in a measure, should be reinitialized
-	//for every new measure
+	// The state of one parse. Each parse gets its own Parser, so pieces may
+	// be parsed concurrently.
+
+	/**
+	 * The piece being parsed into.
+	 */
+	private final Piece piece;
+
+	/**
+	 * The key signature of piece, resolved when the first music is parsed.
+	 */
+	private KeySignature key;
+
+	/**
+	 * Accidentals seen so far in the current measure, from the pitch as
+	 * written to the pitch as altered. Cleared for every new measure.
+	 */
+	private final HashMap<Pitch, Pitch> accidentalChanges = new HashMap<Pitch, Pitch>();
+
+	/**
+	 * Per voice, the measures a close repeat may go back to, and every
+	 * measure that has been followed by another so far.
+	 */
+	private final Map< Voice, Stack<Measure> > openRepeatStackMap = new HashMap< Voice, Stack<Measure> >();
+	private final Map< Voice, List<Measure> > previousMeasuresMap = new HashMap< Voice, List<Measure> >();
+
+	/**
+	 * Where to record which tokens went into each measure, if anywhere.
+	 */
+	private final MeasureSegments segments;
+
+	private Parser(Piece piece, KeySignature key, MeasureSegments segments) {
+		this.piece = piece;
+		this.key = key;
+		this.segments = segments;
+	}
 
 	/**
 	 * Parse the contents of an abc music file.
@@ -112,93 +252,223 @@ public class Parser {
 	 * @throws NoteOutOfBoundsException 
 	 */
 	public static Piece parse(String abcContents) throws NoteOutOfBoundsException {
-		Lexer l = new Lexer(types);
-		List<Token> tokens = l.lex(abcContents);
+		TokenBuffer tokens = lexer.lexToBuffer(abcContents);
 
 		Piece piece = parseTokens(tokens);
 		return piece;
 	}
 
+	/**
+	 * Parses every tune in a songbook, i.e. an abc file holding several tunes
+	 * each starting with its own X: field. See parseAll(String,
+	 * ExecutorService, List).
+	 */
+	public static List<Piece> parseAll(String abcContents,
+			List<Exception> errors) throws InterruptedException {
+		return parseAll(abcContents, tunePool(), errors);
+	}
+
+	/**
+	 * Parses every tune in a songbook, i.e. an abc file holding several tunes
+	 * each starting with its own X: field at the start of a line. Anything
+	 * before the first X: field belongs to no tune and is ignored.
+	 * 
+	 * The tunes are lexed and parsed as separate tasks on executor, and a
+	 * tune that cannot be parsed does not stop the others.
+	 * 
+	 * @param errors
+	 *            if not null, receives one entry per tune: the exception that
+	 *            stopped it being parsed, or null if it parsed.
+	 * @return the tunes in source order, with null in place of any that could
+	 *         not be parsed.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the tasks.
+	 */
+	public static List<Piece> parseAll(String abcContents,
+			ExecutorService executor, List<Exception> errors)
+			throws InterruptedException {
+		List<Callable<Piece>> tasks = new ArrayList<Callable<Piece>>();
+		for (final String tune : splitTunes(abcContents)) {
+			tasks.add(new Callable<Piece>() {
+				public Piece call() throws NoteOutOfBoundsException {
+					TokenBuffer tokens = lexer.lexToBuffer(tune);
+					return parseTokens(tokens);
+				}
+			});
+		}
+
+		List<Piece> pieces = new ArrayList<Piece>(tasks.size());
+		for (Future<Piece> result : executor.invokeAll(tasks)) {
+			Piece piece = null;
+			Exception error = null;
+			try {
+				piece = result.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Error)
+					throw (Error) e.getCause();
+				error = (Exception) e.getCause();
+			}
+			pieces.add(piece);
+			if (errors != null)
+				errors.add(error);
+		}
+		return pieces;
+	}
+
+	/**
+	 * Splits a songbook into its tunes, each starting with an X: field at the
+	 * start of a line and running up to the next.
+	 */
+	public static List<String> splitTunes(String abcContents) {
+		List<String> tunes = new ArrayList<String>();
+		int start = -1;
+		int lineStart = 0;
+		int length = abcContents.length();
+		while (lineStart < length) {
+			if (abcContents.startsWith("X:", lineStart)) {
+				if (start >= 0)
+					tunes.add(abcContents.substring(start, lineStart));
+				start = lineStart;
+			}
+			int newLine = abcContents.indexOf('\n', lineStart);
+			lineStart = newLine < 0 ? length : newLine + 1;
+		}
+		if (start >= 0)
+			tunes.add(abcContents.substring(start));
+		return tunes;
+	}
+
+	/**
+	 * @return the pool parseAll uses by default, created on first use. Its
+	 *         threads are daemons, so it never keeps the JVM alive.
+	 */
+	private static synchronized ExecutorService tunePool() {
+		if (tunePool == null)
+			tunePool = new ForkJoinPool();
+		return tunePool;
+	}
+
+	/**
+	 * Parse an abc music file as it is read, without first loading it whole
+	 * into memory. Tokens are lexed from abcContents on demand.
+	 * 
+	 * @param abcContents
+	 *            the abc music file. It is not closed.
+	 * @return abc music file as represented by a Piece object
+	 * @throws NoteOutOfBoundsException
+	 */
+	public static Piece parse(Readable abcContents) throws NoteOutOfBoundsException {
+		return parseTokens(new TokenStream(lexer, abcContents));
+	}
+
 	/**
 	 * Parses the headers from the abc music file and returns the next non
 	 * header token. If there are no more tokens and none are non-headers,
 	 * returns null.
 	 */
 	public static Piece parseTokens( List<Token> tokens ) throws NoteOutOfBoundsException {
+		return parseTokens(tokens.listIterator());
+	}
+
+	/**
+	 * Parses a whole piece from a stream of tokens, which must be positioned
+	 * at its first token.
+	 */
+	public static Piece parseTokens( ListIterator<Token> iter ) throws NoteOutOfBoundsException {
+		TokenBuffer tokens = new TokenBuffer(lexer, iter);
+		try {
+			return parseTokens(tokens);
+		} finally {
+			tokens.release();
+		}
+	}
+
+	/**
+	 * Parses a whole piece from a TokenBuffer, which must be positioned at its
+	 * first token.
+	 */
+	public static Piece parseTokens( TokenBuffer tokens ) throws NoteOutOfBoundsException {
+		return parseTokens(tokens, null);
+	}
+
+	/**
+	 * Parses a whole piece from a TokenBuffer, recording in segments which
+	 * tokens went into each Measure if segments is not null.
+	 */
+	static Piece parseTokens( TokenBuffer tokens, MeasureSegments segments ) throws NoteOutOfBoundsException {
 		
-		if (tokens.size() < 2) {
+		int first = tokens.hasNext() ? tokens.next() : TokenBuffer.NONE;
+		int second = tokens.hasNext() ? tokens.next() : TokenBuffer.NONE;
+		if (second == TokenBuffer.NONE) {
 			throw new IllegalArgumentException(
 					"Field has invalid number of fields");
 		}
-		if (tokens.get(0).type != FIELD_NUM) {
+		if (first != FIELD_NUM_ID) {
 			throw new IllegalArgumentException(
 					"Header must start with Track Number");
 		}
-		if (tokens.get(1).type != FIELD_TITLE) {
+		if (second != FIELD_TITLE_ID) {
 			throw new IllegalArgumentException(
 					"2nd field in header must be Title");
 		}
+		tokens.back();
+		tokens.back();
 
-		ListIterator<Token> iter = tokens.listIterator();
 		Piece piece = new Piece();
 		
 		// Parse header
-		@SuppressWarnings("unused")
-        Token next = parseHeaderInfo(piece, iter);
+		new Parser(piece, null, segments).parseHeaderInfo(tokens);
 		return piece;
 	}
 
 	/**
-	 * Parses the headers from the abc music file and returns the next non
-	 * header token. If there are no more tokens and none are non-headers,
-	 * returns null
+	 * Parses the headers from the abc music file, and then the music that
+	 * follows them, into piece.
 	 * 
 	 * @param piece
-	 * @param iter
-	 * @return
+	 * @param tokens
 	 * @throws NoteOutOfBoundsException 
 	 */
-	public static Token parseHeaderInfo(Piece piece, ListIterator<Token> iter) throws NoteOutOfBoundsException {
+	public static void parseHeaderInfo(Piece piece, TokenBuffer tokens) throws NoteOutOfBoundsException {
+		new Parser(piece, null, null).parseHeaderInfo(tokens);
+	}
+
+	private void parseHeaderInfo(TokenBuffer tokens) throws NoteOutOfBoundsException {
 
 		// set defaults
-		Fraction defaultLen = new Fraction(1, 8);
-		piece.setMeter(new Fraction(4, 4));
+		Fraction defaultLen = Fraction.valueOf(1, 8);
+		piece.setMeter(Fraction.valueOf(4, 4));
 		boolean setDefaultLenFlag = false;
 		boolean seenMusic = false; //flag if file contains abc lines
 		boolean seenKey = false;
 
 		Voice currentVoice = null;
 		
-		Map< Voice, Stack<Measure> > openRepeatStackMap = new HashMap< Voice, Stack<Measure> >();
-		Map< Voice, List<Measure> > previousMeasuresMap = new HashMap< Voice, List<Measure> >();
-		
 		// Extract header information.
-		while (iter.hasNext()) {
-			Token next = iter.next();
+		while (tokens.hasNext()) {
+			int next = tokens.next();
 			// If we're in the header...
 			if (!seenKey) {
-				if (next.type == FIELD_NUM) {
-					int track = Integer.parseInt(next.contents.substring(2)
+				switch (next) {
+				case FIELD_NUM_ID:
+					int track = Integer.parseInt(tokens.text().substring(2)
 							.trim());
 					piece.setTrackNumber(track);
-				} else if (next.type == FIELD_TITLE) {
-					piece.setTitle(next.contents.substring(2).trim());
-				} else if (next.type == FIELD_COMP) {
-					piece.setComposer(next.contents.substring(2).trim());
-				} else if (next.type == FIELD_DEFAULT_LEN) {
-					next = eatSpaces(iter);
-					if (next != null && next.type == FRACTION) {
-						defaultLen = parseFraction(next.contents);
+					break;
+				case FIELD_TITLE_ID:
+					piece.setTitle(tokens.text().substring(2).trim());
+					break;
+				case FIELD_COMP_ID:
+					piece.setComposer(tokens.text().substring(2).trim());
+					break;
+				case FIELD_DEFAULT_LEN_ID:
+					next = eatSpaces(tokens);
+					if (next == FRACTION_ID) {
+						defaultLen = parseNoteLength(tokens);
 						piece.setDefaultNoteLength(defaultLen);
 						setDefaultLenFlag = true;
-						while(iter.hasNext()){//get rid of spaces
-						    next = iter.next();
-						    if(next.type!=SPACE){
-						        iter.previous();
-						        break;
-						    }
-						}
-						if (!eatNewLine(iter))// next token should be end of
+						skipSpaces(tokens);
+						if (!eatNewLine(tokens))// next token should be end of
 												// line character to end the
 												// header field
 							throw new IllegalArgumentException(
@@ -206,28 +476,23 @@ public class Parser {
 					} else
 						throw new IllegalArgumentException(
 								"Field L: must be followed by a fraction note length "
-										+ next.type.name + " " + next.contents);
-				} else if (next.type == FIELD_METER) {
-					next = eatSpaces(iter);
-					if (next != null
-							&& (next.type == METER || next.type == FRACTION || next.type == BASENOTE)) {
-						if (!next.contents.equals("C") && !next.contents.equals("C|"))
-							piece.setMeter(parseFraction(next.contents));
-						else if(next.contents.equals("C")){
-						    piece.setMeter(new Fraction(4,4));
-						    if(iter.hasNext())
-						        next = iter.next();
-						    if(!next.contents.equals("|"))
-						        iter.previous();
+										+ tokens.tokenType().name + " " + tokens.text());
+					break;
+				case FIELD_METER_ID:
+					next = eatSpaces(tokens);
+					if (next == METER_ID || next == FRACTION_ID || next == BASENOTE_ID) {
+						String meter = tokens.text();
+						if (!meter.equals("C") && !meter.equals("C|"))
+							piece.setMeter(parseFraction(meter));
+						else if(meter.equals("C")){
+						    piece.setMeter(Fraction.valueOf(4,4));
+						    if(tokens.hasNext())
+						        tokens.next();
+						    if(!isText(tokens, "|"))
+						        tokens.back();
 						}
-	                      while(iter.hasNext()){//get rid of spaces
-	                            next = iter.next();
-	                            if(next.type!=SPACE){
-	                                iter.previous();
-	                                break;
-	                            }
-	                        }
-						if (!eatNewLine(iter))// next token should be end of
+						skipSpaces(tokens);
+						if (!eatNewLine(tokens))// next token should be end of
 												// line character to end the
 												// header field
 							throw new IllegalArgumentException(
@@ -235,18 +500,13 @@ public class Parser {
 					} else
 						throw new IllegalArgumentException(
 								"Field M: must be followed by a meter definition");
-				} else if (next.type == FIELD_TEMPO) {
-					next = eatSpaces(iter);
-					if (next != null && next.type == DIGITS) {
-						piece.setTempo(Integer.parseInt(next.contents));
-	                      while(iter.hasNext()){//get rid of spaces
-	                            next = iter.next();
-	                            if(next.type!=SPACE){
-	                                iter.previous();
-	                                break;
-	                            }
-	                        }
-						if (!eatNewLine(iter))// next token should be end of
+					break;
+				case FIELD_TEMPO_ID:
+					next = eatSpaces(tokens);
+					if (next == DIGITS_ID) {
+						piece.setTempo(Integer.parseInt(tokens.text()));
+						skipSpaces(tokens);
+						if (!eatNewLine(tokens))// next token should be end of
 												// line character to end the
 												// header field
 							throw new IllegalArgumentException(
@@ -254,18 +514,21 @@ public class Parser {
 					} else
 						throw new IllegalArgumentException(
 								"Field Q: must be followed by an integer tempo defintion");
-				} else if (next.type == FIELD_VOICE) {
+					break;
+				case FIELD_VOICE_ID: {
 					// Add to our Piece's list of declared Voices
-					String voiceName = next.contents.substring(2).trim();
+					String voiceName = tokens.text().substring(2).trim();
 					Voice voice = new Voice(voiceName);
 					piece.addVoice(voice);
 					openRepeatStackMap.put(voice, new Stack<Measure>());
 					previousMeasuresMap.put(voice, new ArrayList<Measure>());
-				} else if (next.type == FIELD_KEY) {
-					next = eatSpaces(iter);
-					if (next.type != null && next.type == BASENOTE) {
-						String key = next.contents;
-						key += parseHeaderKey(iter);// find other key info and
+					break;
+				}
+				case FIELD_KEY_ID:
+					next = eatSpaces(tokens);
+					if (next == BASENOTE_ID) {
+						String key = tokens.text();
+						key += parseHeaderKey(tokens);// find other key info and
 													// take out the end of line
 													// character
 						piece.setKey(key);
@@ -287,14 +550,15 @@ public class Parser {
 					} else
 						throw new IllegalArgumentException(
 								"Field K: must be followed by a keynote");
+					break;
 				}
 			}
 			// We're not in the header anymore.
 			else {
-				if (next.type == FIELD_VOICE) {
-					String voiceName = next.contents.substring(2).trim();
+				if (next == FIELD_VOICE_ID) {
+					String voiceName = tokens.text().substring(2).trim();
 					currentVoice = piece.getVoice(voiceName);
-				} else if(next.type==NEWLINE){
+				} else if(next == NEWLINE_ID){
 				    //skip
 				}
 				else {
@@ -311,7 +575,7 @@ public class Parser {
 						openRepeatStackMap.get(currentVoice).push( startMeasure );
 					}
 					Measure tail = currentVoice.tail();
-					parseMeasureStructure(piece, tail, iter, openRepeatStackMap.get(currentVoice), previousMeasuresMap.get(currentVoice) );
+					parseMeasureStructure(currentVoice, tail, tokens, openRepeatStackMap.get(currentVoice), previousMeasuresMap.get(currentVoice) );
 					seenMusic=true;
 				}
 			}
@@ -319,61 +583,80 @@ public class Parser {
 	    //Throw an exception if there is no musical content
         if(!seenMusic)
             throw new IllegalArgumentException("abc file must have at least one line of abc music");
-		return null;
 	}
 
 	public static void parseMeasureStructure(Piece piece, Measure currentMeasure,
-			ListIterator<Token> iter, Stack<Measure> openRepeatStack, List<Measure> previousMeasures ) throws NoteOutOfBoundsException {
-		HashMap<String, Pitch> scale = CircleOfFifths.getKeySignature(piece.getKey());
-		iter.previous();
-		while (iter.hasNext()) {
+			TokenBuffer tokens, Stack<Measure> openRepeatStack, List<Measure> previousMeasures ) throws NoteOutOfBoundsException {
+		new Parser(piece, null, null).parseMeasureStructure((Voice) null, currentMeasure, tokens, openRepeatStack, previousMeasures);
+	}
+
+	/**
+	 * As parseMeasureStructure above, also appending every new measure to
+	 * voice when it is not null.
+	 */
+	private void parseMeasureStructure(Voice voice, Measure currentMeasure,
+			TokenBuffer tokens, Stack<Measure> openRepeatStack, List<Measure> previousMeasures ) throws NoteOutOfBoundsException {
+		if (key == null)
+			key = piece.getKeySignature();
+		tokens.back();
+		boolean lineStart = true;
+		while (tokens.hasNext()) {
 			// Try to put the current tokens into the current measure.
-			parseMeasureContents(piece, currentMeasure, iter, scale);
+			int start = tokens.mark();
+			parseMeasureContents(currentMeasure, tokens);
+			if (segments != null)
+				segments.add(currentMeasure, start, tokens.mark(), lineStart);
+			lineStart = false;
 			
-			if (!iter.hasNext()) {
+			if (!tokens.hasNext()) {
 				break;
 			}
 
-			Token next = iter.next();
+			int next = tokens.next();
+	        switch (next) {
 	        // If we need to, go up a level and switch voices.
-	        if (next.type == FIELD_VOICE) {
-	        	iter.previous();
+	        case FIELD_VOICE_ID:
+	        	tokens.back();
 	        	return;
-	        }
-	        
 	        // The ONE_REPEAT and TWO_REPEAT tokens also cause special behavior not related to incrementing the measure.
-	        if (next.type == ONE_REPEAT) {
+	        case ONE_REPEAT_ID:
 				continue;
-			} else if (next.type == TWO_REPEAT) {
+	        case TWO_REPEAT_ID:
 				previousMeasures.get( previousMeasures.size() - 2 ).setAlternateNext( currentMeasure );
 				continue;
-			}
+	        }
 	        
 	        //If we get here, it's time to increment the measure
 	        Measure newMeasure = new Measure();
 			currentMeasure.setNext(newMeasure);
+			if (voice != null)
+				voice.append(newMeasure);
 
 			Measure previousMeasure = currentMeasure;
             currentMeasure = newMeasure;
 			previousMeasures.add(previousMeasure);
 	        
-			if (next.type == BARLINE) {
+			switch (next) {
+			case BARLINE_ID:
 				// Pass
-			} else if( next.type == DOUBLE_BARLINE ) {
+				break;
+			case DOUBLE_BARLINE_ID:
 				// Reset the linking structure...
 				openRepeatStack.clear();
 				openRepeatStack.push( newMeasure );
-				
-			} else if (next.type == OPEN_REPEAT) {
+				break;
+			case OPEN_REPEAT_ID:
 				// Push the current measure onto the open stack.
 				openRepeatStack.push(currentMeasure);
-			} else if (next.type == CLOSE_REPEAT) {
+				break;
+			case CLOSE_REPEAT_ID:
 				if (openRepeatStack.size() == 0) {
 					throw new RuntimeException("No matching open repeat.");
 				}
 				previousMeasure.setNext(openRepeatStack.pop());
 				previousMeasure.setAlternateNext(currentMeasure);
-			} else {
+				break;
+			default:
 				throw new IllegalArgumentException(
 						"Bad Tokens found in parsing music.");
 			}
@@ -390,87 +673,111 @@ public class Parser {
 	 * @throws NoteOutOfBoundsException 
 	 */
 	public static void parseMeasureContents(Piece piece, Measure measure, ListIterator<Token> iter, HashMap<String, Pitch> scale) throws NoteOutOfBoundsException {
-        Fraction measureLen = new Fraction(0);
-        accidentalChanges = new HashMap<Pitch, Pitch>();
-		while (iter.hasNext()) {
-			Token next = iter.next();
+		TokenBuffer tokens = new TokenBuffer(lexer, iter);
+		try {
+			parseMeasureContents(piece, measure, tokens, scale);
+		} finally {
+			tokens.release();
+		}
+	}
+
+	/**
+	 * Parse the contents of a single measure. If ever we see a measure
+	 * structure related token, the measure of interest is over, and we should
+	 * return.
+	 * 
+	 * @param measure
+	 * @param tokens
+	 * @throws NoteOutOfBoundsException 
+	 */
+	public static void parseMeasureContents(Piece piece, Measure measure, TokenBuffer tokens, HashMap<String, Pitch> scale) throws NoteOutOfBoundsException {
+		parseMeasureContents(piece, measure, tokens, KeySignature.fromScale(scale));
+	}
+
+	/**
+	 * As above, with the key signature already resolved.
+	 */
+	public static void parseMeasureContents(Piece piece, Measure measure, TokenBuffer tokens, KeySignature key) throws NoteOutOfBoundsException {
+		new Parser(piece, key, null).parseMeasureContents(measure, tokens);
+	}
+
+	private void parseMeasureContents(Measure measure, TokenBuffer tokens) throws NoteOutOfBoundsException {
+        MutableFraction measureLen = new MutableFraction();
+        accidentalChanges.clear();
+		while (tokens.hasNext()) {
+			int next = tokens.next();
 			Note nextNote;
-			if (next.type == DUPLET) {
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(3,2));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-                //second note
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(3,2));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-			} else if (next.type == TUPLET) {
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(2,3));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-                //second note
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(2,3));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-                //third note
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(2,3));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-			} else if (next.type == QUADRUPLET) {
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(3,4));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-                //second note
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(3,4));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-                //third note
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(3,4));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-                //fourth note
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(3,4));
-                measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-			}
-			else if (next.type == OPEN_CHORD) {
-			    Fraction longestDuration = new Fraction(0);
-				while (iter.hasNext()) {
-						next = iter.next();			
-    				if(next.type==BASENOTE || next.type==ACCIDENTAL || next.type==REST){
-    				    iter.previous();
-    					nextNote = parseNoteElement(piece, iter, scale, new Fraction(1));
+			switch (next) {
+			case DUPLET_ID:
+				for (int i = 0; i < 2; i++) {
+	                nextNote = parseNoteElement(tokens, Fraction.valueOf(3,2));
+	                measure.addNote(nextNote, measureLen);
+	                measureLen.add(nextNote.duration);
+				}
+				break;
+			case TUPLET_ID:
+				for (int i = 0; i < 3; i++) {
+	                nextNote = parseNoteElement(tokens, Fraction.valueOf(2,3));
+	                measure.addNote(nextNote, measureLen);
+	                measureLen.add(nextNote.duration);
+				}
+				break;
+			case QUADRUPLET_ID:
+				for (int i = 0; i < 4; i++) {
+	                nextNote = parseNoteElement(tokens, Fraction.valueOf(3,4));
+	                measure.addNote(nextNote, measureLen);
+	                measureLen.add(nextNote.duration);
+				}
+				break;
+			case OPEN_CHORD_ID:
+			    Fraction longestDuration = Fraction.valueOf(0);
+				while (tokens.hasNext()) {
+					next = tokens.next();
+    				if(next==BASENOTE_ID || next==ACCIDENTAL_ID || next==REST_ID){
+    				    tokens.back();
+    					nextNote = parseNoteElement(tokens, Fraction.valueOf(1));
                         measure.addNote(nextNote, measureLen);
-                        if(nextNote.duration.minus(longestDuration).isPositive())//keep longest length
+                        if(nextNote.duration.compareTo(longestDuration) > 0)//keep longest length
                             longestDuration = nextNote.duration;
     				}
-    				else if(next.type==CLOSE_CHORD){
+    				else if(next==CLOSE_CHORD_ID){
     				    break;
     				}
     				else{
     				    throw new IllegalArgumentException("Invalid elements in chord");
     				}
 				}
-				if(next.type!=CLOSE_CHORD)
+				if(next!=CLOSE_CHORD_ID)
 				    throw new IllegalArgumentException("Chord isn't closed");
-				measureLen = measureLen.plus(longestDuration);
-			}
-			else if (next.type == ACCIDENTAL || next.type == BASENOTE || next.type == REST) {
-			    iter.previous();
-                nextNote = parseNoteElement(piece, iter, scale, new Fraction(1));
+				measureLen.add(longestDuration);
+				break;
+			case ACCIDENTAL_ID:
+			case BASENOTE_ID:
+			case REST_ID:
+			    tokens.back();
+                nextNote = parseNoteElement(tokens, Fraction.valueOf(1));
                 measure.addNote(nextNote, measureLen);
-                measureLen = measureLen.plus(nextNote.duration);
-			} else if (next.type == SPACE || next.type == NEWLINE || next.type == COMMENT) {
+                measureLen.add(nextNote.duration);
+                break;
+			case SPACE_ID:
+			case NEWLINE_ID:
+			case COMMENT_ID:
 				// whitespace
-			} else if (next.type == BARLINE || next.type == DOUBLE_BARLINE
-					|| next.type == OPEN_REPEAT || next.type == CLOSE_REPEAT
-					|| next.type == ONE_REPEAT || next.type == TWO_REPEAT || next.type == FIELD_VOICE) {
+				break;
+			case BARLINE_ID:
+			case DOUBLE_BARLINE_ID:
+			case OPEN_REPEAT_ID:
+			case CLOSE_REPEAT_ID:
+			case ONE_REPEAT_ID:
+			case TWO_REPEAT_ID:
+			case FIELD_VOICE_ID:
 				// These are elements higher level parsers need to handle. Deal with them there.
-				iter.previous();
-				if(measure.getDuration().minus(piece.getMeter()).isPositive()){
+				tokens.back();
+				if(measure.getDuration().compareTo(piece.getMeter()) > 0){
 				    throw new NoteOutOfBoundsException("Measure duration is too long");
 				}
 				return;
-			} else {
+			default:
 				throw new IllegalArgumentException(
 						"Bad Tokens found in parsing music");
 			}
@@ -481,43 +788,63 @@ public class Parser {
 	 * Parses a note element, which includes a basenote, and may be preceded by
 	 * an accidental or followed by an octave
 	 * 
-	 * @param measure
-	 *            - that the note element belongs to
 	 * @param piece
 	 * @param iter
 	 * @param scale - scale to use to modify notes to match a given key signature
 	 * @param modifier - Fraction to multiple note duration by
 	 */
-	@SuppressWarnings("unused")
-    public static Note parseNoteElement(Piece piece,
+	public static Note parseNoteElement(Piece piece,
 			ListIterator<Token> iter, HashMap<String, Pitch> scale, Fraction modifier) {
-		Token next;
+		TokenBuffer tokens = new TokenBuffer(lexer, iter);
+		try {
+			return parseNoteElement(piece, tokens, scale, modifier);
+		} finally {
+			tokens.release();
+		}
+	}
+
+	/**
+	 * Parses a note element, which includes a basenote, and may be preceded by
+	 * an accidental or followed by an octave
+	 * 
+	 * @param piece
+	 * @param tokens
+	 * @param scale - scale to use to modify notes to match a given key signature
+	 * @param modifier - Fraction to multiple note duration by
+	 */
+    public static Note parseNoteElement(Piece piece,
+			TokenBuffer tokens, HashMap<String, Pitch> scale, Fraction modifier) {
+		return new Parser(piece, KeySignature.fromScale(scale), null).parseNoteElement(tokens, modifier);
+	}
+
+	private Note parseNoteElement(TokenBuffer tokens, Fraction modifier) {
+		int next;
 		Pitch p = null;
 		Fraction noteLength = null;
 		Pitch original = null;//if note was modded by accidental, keep original basenote/octave for reference
 		boolean accidental = false;//if note is modified by accidental, must add to accidentalChange map
 
 		// pull first token, expected to be accidental or basenote
-		if (iter.hasNext()) {
-			next = iter.next();
-			if (next.type == ACCIDENTAL){// if accidental, parse note pitch and
+		if (tokens.hasNext()) {
+			next = tokens.next();
+			if (next == ACCIDENTAL_ID){// if accidental, parse note pitch and
 										// correct accidental
 			    accidental = true;
-			    Pair<Pitch, Pitch> pitches = parseAccidental(next, iter, scale);
+			    Pair<Pitch, Pitch> pitches = parseAccidental(tokens, key);
 			    original = pitches.first;
 				p = pitches.second;
 			}
-			else if (next.type == BASENOTE)// if only basenote, parse the note pitch with default accidental of 3
-				p = parseBasenote(next, 3, scale);
-			else if (next.type == REST){//Deal with rests as if they were Notes with Pitch = null
-			    if(iter.hasNext()){
-	                next = iter.next();
-	                if(next.type==DIGITS||next.type==FRACTION||next.type==FRACTION_NOT_STRICT){
-	                    noteLength = piece.getDefaultNoteLength().times(parseNoteLength(next));
+			else if (next == BASENOTE_ID)// if only basenote, parse the note pitch with default accidental of 3
+				p = parseBasenote(tokens.charAt(0), 3, key);
+			else if (next == REST_ID){//Deal with rests as if they were Notes with Pitch = null
+			    if(tokens.hasNext()){
+	                next = tokens.next();
+	                if(next==DIGITS_ID||next==FRACTION_ID||next==FRACTION_NOT_STRICT_ID){
+	                    noteLength = piece.getDefaultNoteLength().times(parseNoteLength(tokens));
 	                }
 	                else{
 	                    noteLength = piece.getDefaultNoteLength();
-	                    iter.previous();
+	                    tokens.back();
 	                }
 	            }
 	            else{
@@ -531,12 +858,12 @@ public class Parser {
 						"Note element must contain a basenote");
 		}
 		// check for optional modifiers
-		if (iter.hasNext()) {
-			next = iter.next();
-			if (next.type == OCTAVE) {// if octave token, parse accordingly
-				p = parseOctave(next, p);
+		if (tokens.hasNext()) {
+			next = tokens.next();
+			if (next == OCTAVE_ID) {// if octave token, parse accordingly
+				p = parseOctave(tokens.charAt(0), tokens.length(), p);
 				if(accidental){//if a note has been modified by an accidental, add it to a hashmap
-				    original = parseOctave(next, original);
+				    original = parseOctave(tokens.charAt(0), tokens.length(), original);
 				    accidentalChanges.put(original, p);
 				}
 				else{//modify note by accidental if it is in the changed note hashmap and the note has no accidental this time
@@ -544,24 +871,24 @@ public class Parser {
 				        p = accidentalChanges.get(p);
 				    }
 				}
-				if (iter.hasNext()) {// check if followed by note length token, else return next token
-					next = iter.next();
-					if (next.type == DIGITS || next.type == FRACTION
-							|| next.type == FRACTION_NOT_STRICT){
-						noteLength = piece.getDefaultNoteLength().times(parseNoteLength(next));
+				if (tokens.hasNext()) {// check if followed by note length token, else return next token
+					next = tokens.next();
+					if (next == DIGITS_ID || next == FRACTION_ID
+							|| next == FRACTION_NOT_STRICT_ID){
+						noteLength = piece.getDefaultNoteLength().times(parseNoteLength(tokens));
 						return new Note(noteLength.times(modifier), p);
 					}
-					else if (next.type == OCTAVE)
+					else if (next == OCTAVE_ID)
 						throw new IllegalArgumentException(
 								"Note should not have mixed octave modifiers");
 					else{
-					    iter.previous();
+					    tokens.back();
 						return new Note(piece.getDefaultNoteLength().times(modifier), p);
 					}
 				}
-			} else if (next.type == DIGITS || next.type == FRACTION
-					|| next.type == FRACTION_NOT_STRICT){// is note length token
-				noteLength = piece.getDefaultNoteLength().times(parseNoteLength(next));
+			} else if (next == DIGITS_ID || next == FRACTION_ID
+					|| next == FRACTION_NOT_STRICT_ID){// is note length token
+				noteLength = piece.getDefaultNoteLength().times(parseNoteLength(tokens));
 				if(accidental){//add modified note to hashmap of accidental changes
                     accidentalChanges.put(original, p);
                 }
@@ -573,7 +900,7 @@ public class Parser {
 				return new Note(noteLength.times(modifier), p);
 			}
 			else{
-			    iter.previous();
+			    tokens.back();
 			    if(accidental){//add modified note to hashmap of accidental changes
                     accidentalChanges.put(original, p);
                 }
@@ -604,35 +931,39 @@ public class Parser {
 
 	/**
 	 * Returns a pair of pitches, one of the original base note and one
-	 * with correct accidental
+	 * with correct accidental. The current token must be the accidental.
 	 * 
-	 * @param next
-	 * @param iter
+	 * @param tokens
 	 * @param scale
 	 * @return
 	 */
-	public static Pair<Pitch,Pitch> parseAccidental(Token next, ListIterator<Token> iter,
+	public static Pair<Pitch,Pitch> parseAccidental(TokenBuffer tokens,
 			HashMap<String, Pitch> scale) {
+		return parseAccidental(tokens, KeySignature.fromScale(scale));
+	}
+
+	/**
+	 * As above, with the key signature already resolved.
+	 */
+	public static Pair<Pitch,Pitch> parseAccidental(TokenBuffer tokens,
+			KeySignature key) {
 		int accidental = 0;
-		if (next.contents.equals("^"))
-			accidental = 1;
-		else if (next.contents.equals("^^"))
-			accidental = 2;
-		else if (next.contents.equals("_"))
-			accidental = -1;
-		else if (next.contents.equals("__"))
-			accidental = -2;
-		else if (next.contents.equals("="))
+		char symbol = tokens.charAt(0);
+		int count = tokens.length();
+		if (symbol == '^' && count <= 2)
+			accidental = count;
+		else if (symbol == '_' && count <= 2)
+			accidental = -count;
+		else if (symbol == '=' && count == 1)
 			accidental = 0;
 		else
 			throw new IllegalArgumentException("Invalid type of accidental");
-		Token basenote;
-		if (iter.hasNext()) {// parse basenote
-			basenote = iter.next();
-			if (basenote.type != BASENOTE)
+		if (tokens.hasNext()) {// parse basenote
+			if (tokens.next() != BASENOTE_ID)
 				throw new IllegalArgumentException(
 						"Accidental must be followed by basenote");
-			return new Pair<Pitch, Pitch>(parseBasenote(basenote, 3, scale), parseBasenote(basenote, accidental, scale));
+			char basenote = tokens.charAt(0);
+			return new Pair<Pitch, Pitch>(parseBasenote(basenote, 3, key), parseBasenote(basenote, accidental, key));
 		} else
 			throw new IllegalArgumentException(
 					"Accidental must be followed by basenote");
@@ -649,17 +980,43 @@ public class Parser {
 	 */
 	public static Pitch parseBasenote(Token next, int accidental,
 			HashMap<String, Pitch> scale) {
+		return parseBasenote(next.charAt(0), accidental, scale);
+	}
+
+	/**
+	 * Returns a Pitch value correctly representing the basenote letter with
+	 * the given accidental/key signature
+	 * 
+	 * @param basenote
+	 * @param accidental
+	 * @param scale
+	 * @return
+	 */
+	public static Pitch parseBasenote(char basenote, int accidental,
+			HashMap<String, Pitch> scale) {
+		return parseBasenote(basenote, accidental, KeySignature.fromScale(scale));
+	}
+
+	/**
+	 * As above, with the key signature already resolved.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the note takes its accidental from the key signature but
+	 *             key is null, i.e. the piece's key is not one we know.
+	 */
+	public static Pitch parseBasenote(char basenote, int accidental,
+			KeySignature key) {
 		int octave = 0;
-		if (next.contents.equals(next.contents.toLowerCase())) // if lowercase
-																// (octave
-																// higher)
+		if (Character.isLowerCase(basenote)) // if lowercase (octave higher)
 			octave = 12;// raise the pitch by 12 halfsteps for an octave
-		if (accidental == 3)// 3 signifies default key value according to key
+		char letter = Character.toUpperCase(basenote);
+		if (accidental == 3) {// 3 signifies default key value according to key
 							// signature, if there was no accidental
-			return scale.get(next.contents.toUpperCase()).transpose(octave);
-		else
-			return new Pitch(next.contents.toUpperCase().toCharArray()[0])
-					.transpose(accidental + octave);
+			if (key == null)
+				throw new IllegalArgumentException("Unknown key signature");
+			return key.pitch(letter).transpose(octave);
+		} else
+			return Pitch.of(letter).transpose(accidental + octave);
 	}
 
 	/**
@@ -672,11 +1029,19 @@ public class Parser {
 	 * @return
 	 */
 	public static Pitch parseOctave(Token next, Pitch p) {
-		if (next.contents.contains(",")) {
-			int octavesDown = next.contents.length();
+		return parseOctave(next.charAt(0), next.length(), p);
+	}
+
+	/**
+	 * Transposes pitch to correct octave given the pitch and the first
+	 * character and length of an octave token
+	 */
+	private static Pitch parseOctave(char symbol, int count, Pitch p) {
+		if (symbol == ',') {
+			int octavesDown = count;
 			return p.transpose(-octavesDown * 12);
 		} else {
-			int octavesUp = next.contents.length();
+			int octavesUp = count;
 			return p.transpose(octavesUp * 12);
 		}
 	}
@@ -690,53 +1055,134 @@ public class Parser {
 	 */
 	public static Fraction parseNoteLength(Token next) {
 		if (next.type == DIGITS)
-			return new Fraction(Integer.parseInt(next.contents));
+			return Fraction.valueOf(Integer.parseInt(next.getContents()));
 		else if (next.type == FRACTION)
-			return parseFraction(next.contents);
+			return parseFraction(next.getContents());
 		else if (next.type == FRACTION_NOT_STRICT)
-			return parseFractionNotStrict(next.contents);
+			return parseFractionNotStrict(next.getContents());
 		else
 			throw new IllegalArgumentException(
 					"Token argument to parseNoteLength must be either digit or strict or non-strict fraction");
 	}
 
+	/**
+	 * Returns a fraction representation of note length given that the current
+	 * token is a DIGIT, FRACTION, or FRACTION_NOT_STRICT token. Reads the
+	 * digits in place rather than building a String.
+	 * 
+	 * @param tokens
+	 * @return
+	 */
+	private static Fraction parseNoteLength(TokenBuffer tokens) {
+		int length = tokens.length();
+		int slashPos = -1;
+		for (int i = 0; i < length; i++) {
+			if (tokens.charAt(i) == '/') {
+				slashPos = i;
+				break;
+			}
+		}
+		switch (tokens.type()) {
+		case DIGITS_ID:
+			return Fraction.valueOf(parseDigits(tokens, 0, length));
+		case FRACTION_ID:
+			return Fraction.valueOf(parseDigits(tokens, 0, slashPos),
+					parseDigits(tokens, slashPos + 1, length));
+		case FRACTION_NOT_STRICT_ID:
+			// A non strict fraction could be 3/ or /3 or /
+			int num = slashPos == 0 ? 1 : parseDigits(tokens, 0, slashPos);
+			int denom = slashPos == length - 1 ? 2 : parseDigits(tokens,
+					slashPos + 1, length);
+			return Fraction.valueOf(num, denom);
+		default:
+			throw new IllegalArgumentException(
+					"Token argument to parseNoteLength must be either digit or strict or non-strict fraction");
+		}
+	}
+
+	/**
+	 * Parses the decimal digits at [from, to) in the current token.
+	 * 
+	 * @throws NumberFormatException
+	 *             if the value does not fit in an int.
+	 */
+	private static int parseDigits(TokenBuffer tokens, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = tokens.charAt(i) - '0';
+			if (value > (Integer.MAX_VALUE - digit) / 10)
+				throw new NumberFormatException("Note length is too large");
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
 	/**
 	 * Ignores whitespace tokens, excluding the newline character, that are
-	 * spaces and returns the next non whitespace character. Returns null if
-	 * there none of the tokens are non whitespace and there are no tokens left
-	 * to iterate over.
+	 * spaces and returns the type of the next non whitespace token, leaving
+	 * the cursor after it. If there are no tokens left, returns
+	 * TokenBuffer.NONE. If there are tokens left, the cursor is always left
+	 * on a non space token.
 	 * 
-	 * @param iter
+	 * @param tokens
 	 * @return
 	 */
-	public static Token eatSpaces(ListIterator<Token> iter) {
-		Token next;
-		while (iter.hasNext()) {
-			next = iter.next();
-			if (next.type != SPACE)
+	public static int eatSpaces(TokenBuffer tokens) {
+		int next;
+		while (tokens.hasNext()) {
+			next = tokens.next();
+			if (next != SPACE_ID)
 				return next;
 		}
-		return null;
+		return TokenBuffer.NONE;
+	}
+
+	/**
+	 * Moves the cursor past any space tokens, leaving it before the next non
+	 * space token.
+	 * 
+	 * @param tokens
+	 */
+	private static void skipSpaces(TokenBuffer tokens) {
+		while (tokens.hasNext()) {
+			if (tokens.next() != SPACE_ID) {
+				tokens.back();
+				return;
+			}
+		}
 	}
 
 	/**
 	 * Should be called if next token is a newline, it will ignore the newline
 	 * token and set the iterator on the next token. Does nothing if there are
 	 * no more tokens to iterate over. If the next token isn't a newline, it
-	 * throws an exception.
+	 * returns false.
 	 * 
-	 * @param iter
+	 * @param tokens
 	 */
-	public static boolean eatNewLine(ListIterator<Token> iter) {
-		if (iter.hasNext()) {
+	public static boolean eatNewLine(TokenBuffer tokens) {
+		if (tokens.hasNext()) {
 			// if not a newline throw exception
-			if (iter.next().type != NEWLINE)
+			if (tokens.next() != NEWLINE_ID)
 				return false;
 		}
 		return true;// if no more tokens or next token was a newline, do
 					// nothing.
 	}
 
+	/**
+	 * @return whether the current token is exactly text.
+	 */
+	private static boolean isText(TokenBuffer tokens, String text) {
+		if (tokens.length() != text.length())
+			return false;
+		for (int i = 0; i < text.length(); i++) {
+			if (tokens.charAt(i) != text.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Parses a FRACTION token and returns a Fraction representation
 	 * 
@@ -748,7 +1194,7 @@ public class Parser {
 		int slashPos = frac.indexOf('/');
 		int num = Integer.parseInt(frac.substring(0, slashPos));
 		int denom = Integer.parseInt(frac.substring(slashPos + 1));
-		return new Fraction(num, denom);
+		return Fraction.valueOf(num, denom);
 	}
 
 	/**
@@ -760,43 +1206,43 @@ public class Parser {
 	 */
 	public static Fraction parseFractionNotStrict(String frac) {
 		if (frac.equals("/"))
-			return new Fraction(1, 2);
+			return Fraction.valueOf(1, 2);
 		else if (frac.endsWith("/"))
-			return new Fraction(Integer.parseInt(frac.substring(0,
+			return Fraction.valueOf(Integer.parseInt(frac.substring(0,
 					frac.length() - 1)), 2);
 		else
 			// assume that token is of form /digits+
-			return new Fraction(1, Integer.parseInt(frac.substring(1)));
+			return Fraction.valueOf(1, Integer.parseInt(frac.substring(1)));
 	}
 
 	/**
 	 * Check and parse for other information in the key header, such as
-	 * accidentals or minor mode.
+	 * accidentals or mode.
 	 * 
-	 * @return parsed key accidental or minor info, else if there are no tokens
+	 * @return parsed key accidental or mode info, else if there are no tokens
 	 *         left or no extra info, returns empty string
 	 */
-	public static String parseHeaderKey(ListIterator<Token> iter) {
-		Token next;
+	public static String parseHeaderKey(TokenBuffer tokens) {
+		int next;
 		String key = "";
-		boolean minor = false;// flag to indicate that mode minor token has been
+		boolean sawMode = false;// flag to indicate that a mode token has been
 								// parsed
 
-		while (iter.hasNext()) {
+		while (tokens.hasNext()) {
 		    
-			next = iter.next();
-			if (next.type == BASENOTE || next.type == KEY_ACCIDENTAL) {
-				if (minor == false)
-					key += next.contents;
+			next = tokens.next();
+			if (next == BASENOTE_ID || next == KEY_ACCIDENTAL_ID) {
+				if (sawMode == false)
+					key += tokens.text();
 				else
 					throw new IllegalArgumentException(
-							"In field K: key accidental must be declared before minor mode");
-			} else if (next.type == MODE_MINOR) {
-				key += next.contents;
-				minor = true;
-			} else if(next.type==SPACE){
+							"In field K: key accidental must be declared before mode");
+			} else if (next == MODE_MINOR_ID || next == MODE_ID) {
+				key += tokens.text();
+				sawMode = true;
+			} else if(next==SPACE_ID){
 			    //do nothing
-			} else if (next.type == NEWLINE) {
+			} else if (next == NEWLINE_ID) {
 				return key;
 			} else
 				throw new IllegalArgumentException(
@@ -812,8 +1258,43 @@ public class Parser {
 	 * @return
 	 */
 	public static List<Token> lex(String string) {
-		Lexer l = new Lexer(types);
-		return l.lex(string);
+		return lexer.lex(string);
+	}
+
+	static TokenBuffer lexToBuffer(String string) {
+		return lexer.lexToBuffer(string);
+	}
+
+	/**
+	 * @return whether a token of type id may appear inside a measure's
+	 *         contents, i.e. is neither a header field, a voice change nor a
+	 *         bar or repeat.
+	 */
+	static boolean isMeasureContent(int type) {
+		switch (type) {
+		case BASENOTE_ID:
+		case ACCIDENTAL_ID:
+		case OCTAVE_ID:
+		case DUPLET_ID:
+		case TUPLET_ID:
+		case QUADRUPLET_ID:
+		case FRACTION_ID:
+		case FRACTION_NOT_STRICT_ID:
+		case DIGITS_ID:
+		case REST_ID:
+		case OPEN_CHORD_ID:
+		case CLOSE_CHORD_ID:
+		case COMMENT_ID:
+		case NEWLINE_ID:
+		case SPACE_ID:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	static boolean isNewLine(int type) {
+		return type == NEWLINE_ID;
 	}
 
 }
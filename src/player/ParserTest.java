@@ -5,9 +5,15 @@ import static org.junit.Assert.*;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import lexer.Token;
 
@@ -30,6 +36,9 @@ import utilities.Fraction;
  * -Measure parsing tests (length of measure, accidental changes)
  * -Header checks
  * -Repeat checks
+ * -Songbook checks (splitting at X: fields, order, isolating bad tunes)
+ * -Concurrency checks (many threads parsing at once get the same pieces as
+ *  parsing one at a time)
  * 
  * @author kimtoy, czuo
  * 
@@ -239,7 +248,24 @@ public class ParserTest {
         assertEquals(measure1toString, measure1.toString());
         assertEquals(measure2toString, measure2.toString());
     }
-    
+
+    /**
+     * Test that modal keys, written short or in full, set the key signature
+     * of the notes
+     */
+    @Test
+    public void testModalKeys() {
+        Piece piece = Parser.parse("X: 1\nT: \nL:1/4\nM:C\nK:G Dorian\nB F c f|\n");
+        assertEquals("GDorian", piece.getKey());
+        assertEquals("[< ( 1 / 4 ) ^A, ( 0 / 1 ) >, < ( 1 / 4 ) F, ( 1 / 4 ) >, < ( 1 / 4 ) c, ( 1 / 2 ) >, < ( 1 / 4 ) f, ( 3 / 4 ) >]",
+                piece.getVoices().get(0).getStart().toString());
+
+        piece = Parser.parse("X: 1\nT: \nL:1/4\nM:C\nK:Dmix\nB F c f|\n");
+        assertEquals("Dmix", piece.getKey());
+        assertEquals("[< ( 1 / 4 ) B, ( 0 / 1 ) >, < ( 1 / 4 ) ^F, ( 1 / 4 ) >, < ( 1 / 4 ) c, ( 1 / 2 ) >, < ( 1 / 4 ) ^f, ( 3 / 4 ) >]",
+                piece.getVoices().get(0).getStart().toString());
+    }
+
     /**
      * Test that no error is thrown for measure that starts with a barline
      */
@@ -296,7 +322,6 @@ public class ParserTest {
         Piece piece = new Piece();
         piece.setDefaultNoteLength(new Fraction(1, 4));
         HashMap<String, Pitch> scale = CircleOfFifths.getKeySignature("D");
-        Parser.accidentalChanges = new HashMap<Pitch, Pitch>();
 
         List<Token> note1 = Parser.lex("G");
         assertEquals(new Note(new Fraction(1, 4), new Pitch('G')),
@@ -353,7 +378,6 @@ public class ParserTest {
         Piece piece = new Piece();
         piece.setDefaultNoteLength(new Fraction(1, 4));
         HashMap<String, Pitch> scale = CircleOfFifths.getKeySignature("D");
-        Parser.accidentalChanges = new HashMap<Pitch, Pitch>();
 
         List<Token> note1 = Parser.lex("G,,'");
         Parser.parseNoteElement(piece, note1.listIterator(), scale,
@@ -368,7 +392,6 @@ public class ParserTest {
         Piece piece = new Piece();
         piece.setDefaultNoteLength(new Fraction(1, 4));
         HashMap<String, Pitch> scale = CircleOfFifths.getKeySignature("D");
-        Parser.accidentalChanges = new HashMap<Pitch, Pitch>();
 
         List<Token> note1 = Parser.lex("^^_G");
         Parser.parseNoteElement(piece, note1.listIterator(), scale,
@@ -594,4 +617,103 @@ public class ParserTest {
         assertEquals(expected, m.toString());
     }
 
+    /**
+     * Test that a songbook is split at X: fields and parsed in order, with a
+     * bad tune not affecting the others
+     * @throws InterruptedException
+     * @throws NoteOutOfBoundsException
+     */
+    @Test
+    public void testParseAll() throws InterruptedException, NoteOutOfBoundsException {
+        String first = "X:1\nT:First\nK:C\nA B C D|\n\n";
+        String bad = "X:2\nT:Bad\nK:C\nA8 B|\n\n";
+        String last = "X:3\nT:Last\nK:G\nF4|\n";
+        String songbook = "% songbook\n" + first + bad + last;
+
+        List<String> tunes = Parser.splitTunes(songbook);
+        assertEquals(3, tunes.size());
+        assertEquals(first, tunes.get(0));
+        assertEquals(bad, tunes.get(1));
+        assertEquals(last, tunes.get(2));
+
+        List<Exception> errors = new ArrayList<Exception>();
+        List<Piece> pieces = Parser.parseAll(songbook, errors);
+        assertEquals(3, pieces.size());
+        assertEquals("First", pieces.get(0).getTitle());
+        assertNull(pieces.get(1));
+        assertEquals("Last", pieces.get(2).getTitle());
+        assertNull(errors.get(0));
+        assertTrue(errors.get(1) instanceof NoteOutOfBoundsException);
+        assertNull(errors.get(2));
+        assertEquals(Parser.parse(last).getVoices().get(0).getStart().toString(),
+                pieces.get(2).getVoices().get(0).getStart().toString());
+    }
+
+    /**
+     * Describes the notes of every voice of a piece, measure by measure
+     */
+    private static String describe(Piece piece) {
+        StringBuilder description = new StringBuilder();
+        for (Voice voice : piece.getVoices()) {
+            description.append(voice.name).append(":\n");
+            for (Measure measure : voice) {
+                description.append(measure).append('\n');
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Test that pieces parsed by many threads at once come out as they do
+     * when parsed one at a time, accidentals included
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentParse() throws Exception {
+        final String[] files = { "fur_elise", "invention", "little_night_music",
+                "paddy", "prelude", "nyannn" };
+        final String[] contents = new String[files.length];
+        final String[] expected = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            BufferedReader f = new BufferedReader(new FileReader("sample_abc/"
+                    + files[i] + ".abc"));
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = f.readLine()) != null) {
+                text.append(line).append('\n');
+            }
+            f.close();
+            contents[i] = text.toString();
+            expected[i] = describe(Parser.parse(contents[i]));
+        }
+
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        start.await();
+                        int mismatches = 0;
+                        for (int i = 0; i < 50; i++) {
+                            int file = (offset + i) % files.length;
+                            if (!expected[file].equals(describe(Parser
+                                    .parse(contents[file]))))
+                                mismatches++;
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(0, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
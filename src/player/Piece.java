@@ -49,11 +49,30 @@ public class Piece {
 	 */
 	private String key;
 
+	/**
+	 * The key signature that key resolves to, or null if it is not a key.
+	 */
+	private KeySignature keySignature;
+
 	/**
 	 * The List of all the starting measures for each voice.
 	 */
 	private List<Voice> voices;
 
+	/**
+	 * The smallest division last worked out, and the meter and smallest
+	 * division of each voice it was worked out from.
+	 */
+	private Fraction smallestDivision;
+	private Fraction smallestDivisionMeter;
+	private Fraction[] voiceDivisions = new Fraction[0];
+
+	/**
+	 * The number of times a field of the piece has been set. Changes inside
+	 * its voices are counted by the voices.
+	 */
+	private int modCount;
+
     /**
      * Constructor
      */
@@ -69,6 +88,7 @@ public class Piece {
 
 	public void setMeter(Fraction meter) {
 		this.meter = meter;
+		this.modCount++;
 	}
 
 	public int getTempo() {
@@ -77,6 +97,7 @@ public class Piece {
 
 	public void setTempo(int tempo) {
 		this.tempo = tempo;
+		this.modCount++;
 	}
 
 	public Fraction getSmallestDivision() {
@@ -84,10 +105,29 @@ public class Piece {
 		 * The (largest, ideally) smallest division needed such that the length of
 		 * each note (and rest) is an integer multiple.
 		 */
+		// Voices keep their smallest divisions until they change, so if each
+		// voice returns the same one as last time, so does the piece.
+		int count = this.voices.size();
+		boolean current = this.smallestDivision != null
+				&& this.smallestDivisionMeter == this.meter
+				&& this.voiceDivisions.length == count;
+		for (int i = 0; current && i < count; i++)
+			current = this.voices.get(i).getSmallestDivision() == this.voiceDivisions[i];
+		if (current)
+			return this.smallestDivision;
+
+		Fraction[] voiceDivisions = new Fraction[count];
+		for (int i = 0; i < count; i++)
+			voiceDivisions[i] = this.voices.get(i).getSmallestDivision();
 		Fraction smallestDivision = this.getMeter();
-		for( Voice voice  : this.voices ) {
-			smallestDivision = Fraction.gcd( smallestDivision, voice.getSmallestDivision() );
+		for( Fraction voiceDivision : voiceDivisions ) {
+			// A voice declared but not used has no division.
+			if( voiceDivision != null )
+				smallestDivision = Fraction.gcd( smallestDivision, voiceDivision );
 		}
+		this.smallestDivision = smallestDivision;
+		this.smallestDivisionMeter = this.meter;
+		this.voiceDivisions = voiceDivisions;
 		return smallestDivision;
 	}
 
@@ -95,8 +135,18 @@ public class Piece {
 		return key;
 	}
 
+	/**
+	 * @return the key signature of the piece, or null if its key is not set
+	 *         or is not one we know.
+	 */
+	public KeySignature getKeySignature() {
+		return keySignature;
+	}
+
 	public void setKey(String key) {
 		this.key = key;
+		this.keySignature = KeySignature.forKey(key);
+		this.modCount++;
 	}
 
 	public String getTitle() {
@@ -105,6 +155,7 @@ public class Piece {
 
 	public void setTitle(String title) {
 		this.title = title;
+		this.modCount++;
 	}
 
 	public String getComposer() {
@@ -113,6 +164,7 @@ public class Piece {
 
 	public void setComposer(String composer) {
 		this.composer = composer;
+		this.modCount++;
 	}
 
 	public int getTrackNumber() {
@@ -121,6 +173,7 @@ public class Piece {
 
 	public void setTrackNumber(int trackNumber) {
 		this.trackNumber = trackNumber;
+		this.modCount++;
 	}
 
 	public Fraction getDefaultNoteLength() {
@@ -129,6 +182,7 @@ public class Piece {
 
 	public void setDefaultNoteLength(Fraction defaultNoteLength) {
 		this.defaultNoteLength = defaultNoteLength;
+		this.modCount++;
 	}
 
 	public List<Voice> getVoices() {
@@ -137,10 +191,20 @@ public class Piece {
 
 	public void setVoices(List<Voice> voices) {
 		this.voices = voices;
+		this.modCount++;
 	}
 	
 	public void addVoice(Voice voice) {
 	    this.voices.add(voice);
+	    this.modCount++;
+	}
+
+	/**
+	 * @return the number of times a field of the piece has been set or a
+	 *         voice added. Changes inside the voices are not counted.
+	 */
+	int getModCount() {
+		return modCount;
 	}
 
 	public Voice getVoice(String name) {
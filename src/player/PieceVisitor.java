@@ -1,11 +1,16 @@
 package player;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
 import javax.sound.midi.MidiUnavailableException;
 
+import sound.NoteBatch;
 import sound.SequencePlayer;
-import utilities.Fraction;
-import utilities.Pair;
 
 /**
  * Converts Piece instances to SequencePlayer instances. This class has only
@@ -15,6 +20,18 @@ import utilities.Pair;
  * @version beta
  */
 public class PieceVisitor {
+	/**
+	 * Pieces with fewer notes than this are rendered on the calling thread;
+	 * handing their voices to the pool would cost more than it saves.
+	 */
+	private static final int PARALLEL_NOTES = 4096;
+
+	/**
+	 * The pool process renders voices on by default, or null until first
+	 * used.
+	 */
+	private static ForkJoinPool renderPool;
+
 	/**
 	 * @param piece
 	 *            A Piece which we wish to process
@@ -24,56 +41,181 @@ public class PieceVisitor {
 	 */
 	public static SequencePlayer process(Piece piece)
 			throws MidiUnavailableException, InvalidMidiDataException {
+		return process(Timeline.compile(piece));
+	}
 
-		/**
-		 * The fractional global time at which the current measure started.
-		 */
-		int ticksPerQuarterNote = fractionToTicks(new Fraction(1, 4),
-				piece.getSmallestDivision());
-
-		Fraction defaultNotesPerQuarter = new Fraction(1,4).quotient(piece.getDefaultNoteLength());
-		SequencePlayer player = new SequencePlayer(piece.getTempo()/(defaultNotesPerQuarter.numerator/defaultNotesPerQuarter.denominator),
-				ticksPerQuarterNote);
-
-		Fraction smallestDivision = piece.getSmallestDivision();
-		for (Voice voice : piece.getVoices()) {
-			Fraction globalTime = new Fraction(0);
-			//Handle the case where a voice is declared, but not used.
-			if( voice.getStart() == null ) continue;
-			for (Measure measure : voice) {
-				for (Pair<Note, Fraction> p : measure.getNotes()) {
-					// Unpack the pair.
-					Note note = p.first;
-					Fraction offset = p.second;
-
-					player.addNote(
-							note.pitch.toMidiNote(),
-							PieceVisitor.fractionToTicks(
-									globalTime.plus(offset),
-									smallestDivision),
-							PieceVisitor.fractionToTicks(note.duration,
-									smallestDivision));
-				}
-
-				// Move forward one measure.
-				globalTime = globalTime.plus(measure.getDuration());
+	/**
+	 * @param timeline
+	 *            A compiled piece which we wish to process
+	 * @return A SequencePlayer with the notes of timeline loaded in. Large
+	 *         pieces with several voices have their voices rendered at the
+	 *         same time on a shared pool.
+	 * @throws MidiUnavailableException
+	 * @throws InvalidMidiDataException
+	 */
+	public static SequencePlayer process(Timeline timeline)
+			throws MidiUnavailableException, InvalidMidiDataException {
+		int notes = 0;
+		for (int v = 0; v < timeline.getVoiceCount(); v++)
+			notes += timeline.getNoteCount(v);
+		boolean parallel = timeline.getVoiceCount() > 1
+				&& notes >= PARALLEL_NOTES;
+		return process(timeline, parallel ? renderPool() : null);
+	}
+
+	/**
+	 * Schedules every note of timeline. Voice by voice, the notes go in a
+	 * NoteBatch, so events are in order of tick, with note-offs before
+	 * note-ons at the same tick but a note of no ticks ending after it
+	 * starts, and otherwise in voice order and the order the notes are
+	 * played. Given a pool, each voice is put in a batch of its own as a
+	 * separate task, and the voices' events are merged into the track, in
+	 * the same order.
+	 * 
+	 * @param timeline
+	 *            A compiled piece which we wish to process
+	 * @param pool
+	 *            the pool to render the voices on, or null to render them
+	 *            all on the calling thread.
+	 * @return A SequencePlayer with the notes of timeline loaded in.
+	 * @throws MidiUnavailableException
+	 * @throws InvalidMidiDataException
+	 */
+	public static SequencePlayer process(Timeline timeline, ForkJoinPool pool)
+			throws MidiUnavailableException, InvalidMidiDataException {
+		SequencePlayer player = new SequencePlayer(
+				timeline.getBeatsPerMinute(),
+				timeline.getTicksPerQuarterNote());
+		int voices = timeline.getVoiceCount();
+		if (pool == null) {
+			NoteBatch batch = new NoteBatch();
+			for (int v = 0; v < voices; v++)
+				addVoice(timeline, v, batch);
+			player.addNotes(batch);
+		} else {
+			List<VoiceRenderer> tasks = new ArrayList<VoiceRenderer>();
+			for (int v = 0; v < voices; v++) {
+				VoiceRenderer task = new VoiceRenderer(timeline, v);
+				pool.execute(task);
+				tasks.add(task);
+			}
+			NoteBatch[] batches = new NoteBatch[voices];
+			MidiEvent[][] events = new MidiEvent[voices][];
+			for (int v = 0; v < voices; v++) {
+				events[v] = tasks.get(v).join();
+				batches[v] = tasks.get(v).batch;
 			}
+			merge(batches, events, player);
 		}
 		return player;
 	}
 
 	/**
-	 * Convert a time ( in fractional length ) to ticks.
+	 * Renders one voice of a timeline to its events, in order, and keeps the
+	 * batch they came from.
+	 */
+	private static final class VoiceRenderer extends RecursiveTask<MidiEvent[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final Timeline timeline;
+		private final int voice;
+		final NoteBatch batch = new NoteBatch();
+
+		VoiceRenderer(Timeline timeline, int voice) {
+			this.timeline = timeline;
+			this.voice = voice;
+		}
+
+		@Override
+		protected MidiEvent[] compute() {
+			return addVoice(this.timeline, this.voice, this.batch).toEvents();
+		}
+	}
+
+	/**
+	 * Adds the notes of the voice-th voice of timeline to batch.
 	 * 
-	 * @param time
-	 *            The time to convert.
-	 * @param divisionLength
-	 *            the length of a single tick.
-	 * @return the number of ticks in time.
+	 * @return batch
+	 */
+	private static NoteBatch addVoice(Timeline timeline, int voice,
+			NoteBatch batch) {
+		for (int i = 0; i < timeline.getNoteCount(voice); i++)
+			batch.add(timeline.getMidiNote(voice, i),
+					timeline.getStartTick(voice, i),
+					timeline.getLengthTicks(voice, i));
+		return batch;
+	}
+
+	/**
+	 * Adds the events of every voice to player in the order one batch of all
+	 * their notes would give: by the batches' order keys, then by voice, so
+	 * that each goes on the end of the track. The voices waiting to give
+	 * their next event are kept in a heap.
+	 * 
+	 * @param batches
+	 *            the batch of each voice, sorted
+	 * @param events
+	 *            the events of each voice's batch, in order
+	 */
+	private static void merge(NoteBatch[] batches, MidiEvent[][] events,
+			SequencePlayer player) {
+		int[] next = new int[events.length];
+		int[] heap = new int[events.length];
+		int size = 0;
+		for (int v = 0; v < events.length; v++) {
+			if (events[v].length > 0)
+				heap[size++] = v;
+		}
+		for (int i = size / 2 - 1; i >= 0; i--)
+			siftDown(heap, size, i, batches, next);
+		while (size > 0) {
+			int v = heap[0];
+			player.addEvent(events[v][next[v]++]);
+			if (next[v] == events[v].length)
+				heap[0] = heap[--size];
+			siftDown(heap, size, 0, batches, next);
+		}
+	}
+
+	private static void siftDown(int[] heap, int size, int i,
+			NoteBatch[] batches, int[] next) {
+		while (true) {
+			int least = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < size && before(heap[left], heap[least], batches, next))
+				least = left;
+			if (right < size && before(heap[right], heap[least], batches, next))
+				least = right;
+			if (least == i)
+				return;
+			int swap = heap[i];
+			heap[i] = heap[least];
+			heap[least] = swap;
+			i = least;
+		}
+	}
+
+	/**
+	 * @return whether the next event of voice a goes before that of voice b.
+	 */
+	private static boolean before(int a, int b, NoteBatch[] batches,
+			int[] next) {
+		long keyA = batches[a].getOrderKey(next[a]);
+		long keyB = batches[b].getOrderKey(next[b]);
+		if (keyA != keyB)
+			return keyA < keyB;
+		return a < b;
+	}
+
+	/**
+	 * @return the pool process renders voices on by default, created on
+	 *         first use. Its threads are daemons, so it never keeps the JVM
+	 *         alive.
 	 */
-	private static int fractionToTicks(Fraction time, Fraction divisionLength) {
-		// The int case should be exact, since time should be an integer
-		// multiple of the division length.
-		return (int) time.quotient(divisionLength).approximation();
+	private static synchronized ForkJoinPool renderPool() {
+		if (renderPool == null)
+			renderPool = new ForkJoinPool();
+		return renderPool;
 	}
 }
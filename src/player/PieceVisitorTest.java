@@ -0,0 +1,101 @@
+package player;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.sound.midi.MidiEvent;
+
+import org.junit.Test;
+
+import sound.SequencePlayer;
+
+/**
+ * JUnit testing for PieceVisitor.
+ * Strategy: rendering voices together or separately and merging them, on a
+ * pool or not, must give exactly the track that sorting every note's events
+ * by tick, note-offs first, voice by voice, gives. Pieces have voices that
+ * overlap, chords, notes at the same tick in different voices, and repeats.
+ *
+ * @author woursler
+ * @version RC1
+ */
+public class PieceVisitorTest {
+
+	private static final String VOICES = "X:1\nT:t\nM:4/4\nL:1/8\nQ:200\n"
+			+ "V:1\nV:2\nV:3\nK:G\n"
+			+ "V:1\n|:[C2E2G2] (3ABc d4|e8:|\n"
+			+ "V:2\nC,4 G,4|[1z2 A,2 B,4:|[2C8|]\n"
+			+ "V:3\nc/d/e/f/ g2 (3abc' d'2|C2D2E2F2|\n";
+
+	/**
+	 * @return the track of timeline with its notes' events added one at a
+	 *         time, voice by voice, after a stable sort by tick and then
+	 *         note-offs first.
+	 */
+	private static String sequential(Timeline timeline) throws Exception {
+		List<MidiEvent> events = new ArrayList<MidiEvent>();
+		for (int v = 0; v < timeline.getVoiceCount(); v++) {
+			for (int i = 0; i < timeline.getNoteCount(v); i++) {
+				int note = timeline.getMidiNote(v, i);
+				long start = timeline.getStartTick(v, i);
+				events.add(SequencePlayer.noteEvent(true, note, start));
+				events.add(SequencePlayer.noteEvent(false, note, start
+						+ timeline.getLengthTicks(v, i)));
+			}
+		}
+		Collections.sort(events, new Comparator<MidiEvent>() {
+			public int compare(MidiEvent a, MidiEvent b) {
+				if (a.getTick() != b.getTick())
+					return a.getTick() < b.getTick() ? -1 : 1;
+				return a.getMessage().getStatus()
+						- b.getMessage().getStatus();
+			}
+		});
+		SequencePlayer player = new SequencePlayer(
+				timeline.getBeatsPerMinute(),
+				timeline.getTicksPerQuarterNote());
+		for (MidiEvent event : events)
+			player.addEvent(event);
+		return player.toString();
+	}
+
+	@Test
+	public void mergeMatchesSequential() throws Exception {
+		Timeline timeline = Timeline.compile(Parser.parse(VOICES));
+		String expected = sequential(timeline);
+		assertEquals(expected, PieceVisitor.process(timeline, null).toString());
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			assertEquals(expected, PieceVisitor.process(timeline, pool)
+					.toString());
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(expected, PieceVisitor.process(timeline).toString());
+	}
+
+	@Test
+	public void manyNotes() throws Exception {
+		StringBuilder abc = new StringBuilder("X:1\nT:t\nM:4/4\nL:1/8\n"
+				+ "V:1\nV:2\nK:C\n");
+		for (int i = 0; i < 300; i++) {
+			abc.append("V:1\n[CE]DEF GABc|\nV:2\n(3CDE (3FGA B2 c2|\n");
+		}
+		Timeline timeline = Timeline.compile(Parser.parse(abc.toString()));
+		assertEquals(sequential(timeline), PieceVisitor.process(timeline)
+				.toString());
+	}
+
+	@Test
+	public void emptyVoice() throws Exception {
+		Timeline timeline = Timeline.compile(Parser
+				.parse("X:1\nT:t\nV:1\nV:2\nK:C\nV:2\nC D|\n"));
+		assertEquals(sequential(timeline), PieceVisitor.process(timeline,
+				null).toString());
+	}
+}
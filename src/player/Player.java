@@ -1,9 +1,15 @@
 package player;
 
+import java.util.List;
+
+import sound.Playback;
+import sound.SequencePlayer;
+
 /**
  * The player class allows for a piece to be loaded, then played potentially
- * many times.
- * 
+ * many times. The piece is rendered the first time it is played, and the
+ * rendering is played again each time after, until the piece changes.
+ *
  * @author woursler
  * @version beta
  */
@@ -11,31 +17,143 @@ public class Player {
 	/**
 	 * The data pertaining to the piece.
 	 */
-	private Piece piece;
+	private final Piece piece;
+
+	/**
+	 * The piece compiled to ticks, and rendered to a track, or null until
+	 * first played.
+	 */
+	private Timeline timeline;
+	private SequencePlayer rendered;
+
+	/**
+	 * What the piece was when rendered: its own count of changes, and its
+	 * voices with theirs.
+	 */
+	private int renderedModCount;
+	private Voice[] renderedVoices = new Voice[0];
+	private int[] renderedVoiceModCounts = new int[0];
+
+	/**
+	 * Whether to keep the sequencer open between plays.
+	 */
+	private boolean keepWarm;
 
 	/**
 	 * Basic constructor.
-	 * 
+	 *
 	 * @param abcContents
 	 *            The contents (NOT the filename) of an .abc file to play.
 	 * @throws RuntimeException
 	 *             If parsing fails miserably for some reason.
-	 * @throws NoteOutOfBoundsException 
+	 * @throws NoteOutOfBoundsException
 	 */
 	public Player(String abcContents) throws RuntimeException, NoteOutOfBoundsException {
-		this.piece = Parser.parse(abcContents);
+		this(Parser.parse(abcContents));
+	}
+
+	/**
+	 * @param piece
+	 *            The piece to play. It may be changed between plays.
+	 */
+	public Player(Piece piece) {
+		this.piece = piece;
 	}
 
 	/**
 	 * Actually play the piece.
-	 * 
+	 *
 	 * @throws Exception
 	 *             if the Piece cannot be processed, or the MIDI player doesn't
 	 *             start.
 	 */
 	public void play() throws Exception {
+		SequencePlayer rendered = this.render();
+		this.announce();
+		rendered.play();
+	}
+
+	/**
+	 * Starts playing the piece, and returns at once.
+	 *
+	 * @return the playback, to pause, resume, cancel or wait for.
+	 * @throws Exception
+	 *             if the Piece cannot be processed, or the MIDI player doesn't
+	 *             start.
+	 */
+	public Playback start() throws Exception {
+		SequencePlayer rendered = this.render();
+		this.announce();
+		return rendered.start();
+	}
+
+	private void announce() {
 		System.out.println("Playing " + this.piece.getTitle() + "." );
-		PieceVisitor.process(this.piece).play();
+		if (this.timeline.isQuantized())
+			System.out.println("Timing rounded to "
+					+ this.timeline.getTicksPerQuarterNote()
+					+ " ticks per quarter note, by up to "
+					+ this.timeline.getQuantizationError() + " of a whole note.");
+	}
+
+	/**
+	 * Keeps the sequencer, and the synthesizer it plays through, open between
+	 * plays, so that playing again starts at once. Turning this off closes
+	 * them, stopping any playback.
+	 */
+	public synchronized void setKeepWarm(boolean keepWarm) throws Exception {
+		this.keepWarm = keepWarm;
+		if (this.rendered == null)
+			return;
+		if (keepWarm)
+			this.rendered.open();
+		else
+			this.rendered.close();
+	}
+
+	/**
+	 * @return the piece rendered, from the last time if it has not changed
+	 *         since.
+	 */
+	synchronized SequencePlayer render() throws Exception {
+		if (this.rendered != null && this.isRenderCurrent())
+			return this.rendered;
+		List<Voice> voices = this.piece.getVoices();
+		int modCount = this.piece.getModCount();
+		Voice[] renderedVoices = voices.toArray(new Voice[voices.size()]);
+		int[] voiceModCounts = new int[renderedVoices.length];
+		for (int i = 0; i < renderedVoices.length; i++)
+			voiceModCounts[i] = renderedVoices[i].getModCount();
+
+		Timeline timeline = Timeline.compile(this.piece);
+		SequencePlayer rendered = PieceVisitor.process(timeline);
+		if (this.rendered != null && this.keepWarm)
+			this.rendered.close();
+		if (this.keepWarm)
+			rendered.open();
+		this.timeline = timeline;
+		this.rendered = rendered;
+		this.renderedModCount = modCount;
+		this.renderedVoices = renderedVoices;
+		this.renderedVoiceModCounts = voiceModCounts;
+		return rendered;
+	}
+
+	/**
+	 * @return whether the piece is as it was when last rendered.
+	 */
+	private boolean isRenderCurrent() {
+		List<Voice> voices = this.piece.getVoices();
+		if (this.piece.getModCount() != this.renderedModCount
+				|| voices.size() != this.renderedVoices.length)
+			return false;
+		for (int i = 0; i < this.renderedVoices.length; i++) {
+			Voice voice = voices.get(i);
+			if (voice != this.renderedVoices[i]
+					|| voice.getModCount() != this.renderedVoiceModCounts[i])
+				return false;
+		}
+		return true;
 	}
 
 }
@@ -0,0 +1,88 @@
+package player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+
+import org.junit.Test;
+
+import sound.SequencePlayer;
+
+/**
+ * JUnit testing for Player.
+ * Strategy: rendering again must give the same rendering until the piece
+ * changes, whether a field of the piece, its list of voices, or a measure
+ * deep inside a voice. Rendering needs no sound device. Keeping warm must
+ * keep the sequencer open between plays, and is only tested where there is a
+ * sequencer to open.
+ *
+ * @author woursler
+ * @version RC1
+ */
+public class PlayerTest {
+
+	private static final String PIECE = "X:1\nT:t\nM:4/4\nL:1/4\nQ:120\n"
+			+ "V:1\nV:2\nK:C\nV:1\nC D E F|G A B c|\nV:2\nC,4|G,4|\n";
+
+	@Test
+	public void renderedOnce() throws Exception {
+		Player player = new Player(PIECE);
+		SequencePlayer rendered = player.render();
+		assertSame(rendered, player.render());
+		assertSame(rendered, player.render());
+	}
+
+	@Test
+	public void renderedAgainWhenPieceChanges() throws Exception {
+		Piece piece = Parser.parse(PIECE);
+		Player player = new Player(piece);
+		SequencePlayer first = player.render();
+
+		piece.setTempo(60);
+		SequencePlayer second = player.render();
+		assertNotSame(first, second);
+		assertSame(second, player.render());
+
+		// Cut the second measure of the first voice.
+		String before = second.toString();
+		piece.getVoices().get(0).getStart().setNext(null);
+		SequencePlayer third = player.render();
+		assertNotSame(second, third);
+		assertTrue(third.toString().length() < before.length());
+		assertSame(third, player.render());
+
+		piece.addVoice(new Voice("3"));
+		assertNotSame(third, player.render());
+	}
+
+	/**
+	 * @return whether the default sequencer, and the synthesizer it plays
+	 *         through, can be had.
+	 */
+	private static boolean haveSequencer() {
+		try {
+			MidiSystem.getSequencer().close();
+			return true;
+		} catch (MidiUnavailableException e) {
+			return false;
+		}
+	}
+
+	@Test
+	public void keepWarm() throws Exception {
+		assumeTrue(haveSequencer());
+		Player player = new Player(PIECE);
+		player.setKeepWarm(true);
+		SequencePlayer rendered = player.render();
+		assertTrue(rendered.isOpen());
+		player.setKeepWarm(false);
+		assertFalse(rendered.isOpen());
+		assertEquals(rendered, player.render());
+	}
+}
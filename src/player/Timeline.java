@@ -0,0 +1,299 @@
+package player;
+
+import java.util.List;
+
+import utilities.Fraction;
+import utilities.MutableFraction;
+
+/**
+ * A Piece compiled down to whole MIDI ticks: every note played, repeats
+ * unrolled, as a pitch, a start tick and a length in ticks, voice by voice.
+ * Rendering from a Timeline is plain integer arithmetic.
+ *
+ * The resolution is the coarsest number of ticks per quarter note at which
+ * every note starts and ends on a tick, unless that is more than the cap
+ * given to compile, in which case the cap is used and times are rounded to
+ * the nearest tick. isQuantized says whether that happened, and
+ * getQuantizationError by how much.
+ *
+ * Instances are immutable.
+ *
+ * @author woursler
+ * @version beta
+ */
+public final class Timeline {
+
+	/**
+	 * The resolution compile uses at most unless told otherwise. Any note
+	 * down to a 1/256 note, and triplets and quintuplets of those, fit it
+	 * exactly.
+	 */
+	public static final int DEFAULT_MAX_TICKS_PER_QUARTER_NOTE = 960;
+
+	private final int ticksPerQuarterNote;
+	private final int beatsPerMinute;
+
+	/**
+	 * The notes of every voice, as parallel arrays. The notes of the v-th
+	 * voice are those from voiceOffsets[v] up to voiceOffsets[v + 1], in the
+	 * order they are played, and in each measure in the order they were
+	 * added.
+	 */
+	private final String[] voiceNames;
+	private final int[] voiceOffsets;
+	private final int[] midiNotes;
+	private final long[] startTicks;
+	private final long[] lengthTicks;
+
+	/**
+	 * The largest distance, in whole notes, from a time to the tick it was
+	 * rounded to. Zero if nothing was rounded.
+	 */
+	private final Fraction quantizationError;
+
+	private Timeline(Compiler compiler) {
+		this.ticksPerQuarterNote = compiler.ticksPerQuarterNote;
+		this.beatsPerMinute = compiler.beatsPerMinute;
+		this.voiceNames = compiler.voiceNames;
+		this.voiceOffsets = compiler.voiceOffsets;
+		this.midiNotes = compiler.midiNotes;
+		this.startTicks = compiler.startTicks;
+		this.lengthTicks = compiler.lengthTicks;
+		this.quantizationError = compiler.maxError.toFraction().quotient(
+				compiler.ticksPerWholeNote);
+	}
+
+	/**
+	 * Compiles piece with at most DEFAULT_MAX_TICKS_PER_QUARTER_NOTE ticks
+	 * per quarter note.
+	 */
+	public static Timeline compile(Piece piece) {
+		return compile(piece, DEFAULT_MAX_TICKS_PER_QUARTER_NOTE);
+	}
+
+	/**
+	 * Compiles piece to ticks.
+	 *
+	 * @param piece
+	 *            the piece to compile.
+	 * @param maxTicksPerQuarterNote
+	 *            the finest resolution to use. If the piece needs a finer one
+	 *            to be exact, this one is used and times are rounded.
+	 * @throws IllegalArgumentException
+	 *             if maxTicksPerQuarterNote is not positive.
+	 * @throws ArithmeticException
+	 *             if a tick does not fit in a long.
+	 */
+	public static Timeline compile(Piece piece, int maxTicksPerQuarterNote) {
+		if (maxTicksPerQuarterNote <= 0)
+			throw new IllegalArgumentException(
+					"There must be at least one tick per quarter note.");
+		return new Timeline(new Compiler(piece, maxTicksPerQuarterNote));
+	}
+
+	/**
+	 * Works out the arrays of a Timeline.
+	 */
+	private static final class Compiler {
+		final int ticksPerQuarterNote;
+		final long ticksPerWholeNote;
+		final int beatsPerMinute;
+		final String[] voiceNames;
+		final int[] voiceOffsets;
+		final int[] midiNotes;
+		final long[] startTicks;
+		final long[] lengthTicks;
+
+		/**
+		 * The largest distance from a time to its tick so far, in ticks.
+		 */
+		final MutableFraction maxError = new MutableFraction();
+
+		private final MutableFraction time = new MutableFraction();
+
+		Compiler(Piece piece, int maxTicksPerQuarterNote) {
+			// Each time is a multiple of the smallest division n / d, so
+			// ticks of 1 / (4 * ticksPerQuarterNote) fit them all exactly
+			// when d divides 4 * ticksPerQuarterNote * n. n / d is in least
+			// terms, so that is when d / gcd(d, 4) divides
+			// ticksPerQuarterNote.
+			Fraction division = piece.getSmallestDivision();
+			long exact = division.denominator
+					/ Fraction.gcd(division.denominator, 4);
+			this.ticksPerQuarterNote = (int) Math.min(exact,
+					maxTicksPerQuarterNote);
+			this.ticksPerWholeNote = 4L * this.ticksPerQuarterNote;
+
+			// The tempo counts default note lengths, L, per minute, so there
+			// are tempo * 4 * L quarter notes per minute, rounded to the
+			// nearest. A piece without a tempo keeps 0; any other gets at
+			// least one, so the sequencer moves.
+			Fraction length = piece.getDefaultNoteLength();
+			long quarters = 4L * piece.getTempo() * length.numerator;
+			long rounded = (quarters + length.denominator / 2)
+					/ length.denominator;
+			this.beatsPerMinute = quarters <= 0 ? 0 : (int) Math.max(1,
+					Math.min(Integer.MAX_VALUE, rounded));
+
+			List<Voice> voices = piece.getVoices();
+			this.voiceNames = new String[voices.size()];
+			this.voiceOffsets = new int[voices.size() + 1];
+			int count = 0;
+			for (int v = 0; v < voices.size(); v++) {
+				Voice voice = voices.get(v);
+				this.voiceNames[v] = voice.name;
+				this.voiceOffsets[v] = count;
+				// Handle the case where a voice is declared, but not used.
+				if (voice.getStart() == null)
+					continue;
+				for (int m = 0; m < voice.getPlayedMeasureCount(); m++)
+					count += voice.getPlayedMeasure(m).getNoteCount();
+			}
+			this.voiceOffsets[voices.size()] = count;
+			this.midiNotes = new int[count];
+			this.startTicks = new long[count];
+			this.lengthTicks = new long[count];
+
+			int n = 0;
+			for (Voice voice : voices) {
+				if (voice.getStart() == null)
+					continue;
+				for (int m = 0; m < voice.getPlayedMeasureCount(); m++) {
+					Measure measure = voice.getPlayedMeasure(m);
+					Fraction measureStart = voice.getPlayedStartTime(m);
+					for (int i = 0; i < measure.getNoteCount(); i++, n++) {
+						// Round the start and the end rather than the length,
+						// so rounding never adds up along a voice.
+						this.time.set(measureStart);
+						long start = this.toTicks(this.time.add(
+								measure.getStartNumerator(i),
+								measure.getStartDenominator(i)));
+						long end = this.toTicks(this.time.add(
+								measure.getDurationNumerator(i),
+								measure.getDurationDenominator(i)));
+						this.midiNotes[n] = measure.getMidiNote(i);
+						this.startTicks[n] = start;
+						this.lengthTicks[n] = Math.max(end - start, 1);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return time in ticks, rounded half up to the nearest one.
+		 */
+		private long toTicks(MutableFraction time) {
+			long numerator = time.getNumerator();
+			long denominator = time.getDenominator();
+			long scaled;
+			if (Math.abs(numerator) < (1L << 31) && denominator < (1L << 31)
+					&& this.ticksPerWholeNote < (1L << 31)) {
+				scaled = numerator * this.ticksPerWholeNote;
+			} else {
+				Fraction exact = time.toFraction().times(this.ticksPerWholeNote);
+				numerator = exact.numerator;
+				denominator = exact.denominator;
+				scaled = numerator;
+			}
+			long ticks = scaled / denominator;
+			long remainder = scaled % denominator;
+			if (remainder < 0) {
+				ticks--;
+				remainder += denominator;
+			}
+			if (remainder == 0)
+				return ticks;
+			long distance = remainder;
+			if (remainder >= denominator - remainder) {
+				ticks++;
+				distance = denominator - remainder;
+			}
+			if (this.maxError.compareTo(distance, denominator) < 0)
+				this.maxError.set(distance, denominator);
+			return ticks;
+		}
+	}
+
+	/**
+	 * @return the resolution of the ticks.
+	 */
+	public int getTicksPerQuarterNote() {
+		return this.ticksPerQuarterNote;
+	}
+
+	/**
+	 * @return the tempo, in quarter notes per minute.
+	 */
+	public int getBeatsPerMinute() {
+		return this.beatsPerMinute;
+	}
+
+	/**
+	 * @return the number of voices, the same as in the piece, including any
+	 *         without notes.
+	 */
+	public int getVoiceCount() {
+		return this.voiceNames.length;
+	}
+
+	/**
+	 * @return the name of the voice-th voice.
+	 */
+	public String getVoiceName(int voice) {
+		return this.voiceNames[voice];
+	}
+
+	/**
+	 * @return the number of notes the voice-th voice plays, counting each
+	 *         time a repeated note is played.
+	 */
+	public int getNoteCount(int voice) {
+		return this.voiceOffsets[voice + 1] - this.voiceOffsets[voice];
+	}
+
+	/**
+	 * @return the MIDI note number of the index-th note of the voice-th
+	 *         voice.
+	 */
+	public int getMidiNote(int voice, int index) {
+		return this.midiNotes[this.index(voice, index)];
+	}
+
+	/**
+	 * @return the tick the index-th note of the voice-th voice starts at.
+	 */
+	public long getStartTick(int voice, int index) {
+		return this.startTicks[this.index(voice, index)];
+	}
+
+	/**
+	 * @return the length in ticks of the index-th note of the voice-th
+	 *         voice. Always positive.
+	 */
+	public long getLengthTicks(int voice, int index) {
+		return this.lengthTicks[this.index(voice, index)];
+	}
+
+	private int index(int voice, int index) {
+		if (index < 0 || index >= this.getNoteCount(voice))
+			throw new IndexOutOfBoundsException("Note " + index + " of "
+					+ this.getNoteCount(voice));
+		return this.voiceOffsets[voice] + index;
+	}
+
+	/**
+	 * @return whether some time had to be rounded to the nearest tick, i.e.
+	 *         the piece needs a finer resolution than it was compiled with.
+	 */
+	public boolean isQuantized() {
+		return this.quantizationError.isPositive();
+	}
+
+	/**
+	 * @return the largest distance, in whole notes, from a note's start or
+	 *         end to the tick it was rounded to. Zero unless isQuantized().
+	 */
+	public Fraction getQuantizationError() {
+		return this.quantizationError;
+	}
+}
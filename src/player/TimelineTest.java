@@ -0,0 +1,118 @@
+package player;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import sound.Pitch;
+import utilities.Fraction;
+
+/**
+ * JUnit testing for Timeline.
+ * Strategy: the resolution must be the coarsest at which every time is a
+ * whole tick, so plain pieces get few ticks and tuplets get more. Notes must
+ * come out voice by voice with repeats unrolled. A cap below the exact
+ * resolution must round times to the nearest tick and say by how much.
+ *
+ * @author woursler
+ * @version RC1
+ */
+public class TimelineTest {
+
+	private static long[] starts(Timeline timeline, int voice) {
+		long[] starts = new long[timeline.getNoteCount(voice)];
+		for (int i = 0; i < starts.length; i++)
+			starts[i] = timeline.getStartTick(voice, i);
+		return starts;
+	}
+
+	private static long[] lengths(Timeline timeline, int voice) {
+		long[] lengths = new long[timeline.getNoteCount(voice)];
+		for (int i = 0; i < lengths.length; i++)
+			lengths[i] = timeline.getLengthTicks(voice, i);
+		return lengths;
+	}
+
+	@Test
+	public void quarterNotes() throws NoteOutOfBoundsException {
+		Timeline timeline = Timeline.compile(Parser
+				.parse("X:1\nT:t\nM:4/4\nL:1/4\nQ:120\nK:C\nC D E F|\n"));
+		assertEquals(1, timeline.getTicksPerQuarterNote());
+		assertEquals(120, timeline.getBeatsPerMinute());
+		assertEquals(1, timeline.getVoiceCount());
+		assertArrayEquals(new long[] { 0, 1, 2, 3 }, starts(timeline, 0));
+		assertArrayEquals(new long[] { 1, 1, 1, 1 }, lengths(timeline, 0));
+		assertEquals(new Pitch('E').toMidiNote(), timeline.getMidiNote(0, 2));
+		assertFalse(timeline.isQuantized());
+		assertEquals(Fraction.valueOf(0), timeline.getQuantizationError());
+	}
+
+	@Test
+	public void longDefaultNoteLength() throws NoteOutOfBoundsException {
+		Timeline timeline = Timeline.compile(Parser
+				.parse("X:1\nT:t\nM:4/4\nL:1/2\nQ:60\nK:C\nC D|\n"));
+		assertEquals(120, timeline.getBeatsPerMinute());
+		assertEquals(1, timeline.getTicksPerQuarterNote());
+		assertArrayEquals(new long[] { 0, 2 }, starts(timeline, 0));
+		timeline = Timeline.compile(Parser
+				.parse("X:1\nT:t\nM:6/8\nL:3/8\nQ:100\nK:C\nC D|\n"));
+		assertEquals(150, timeline.getBeatsPerMinute());
+		timeline = Timeline.compile(Parser
+				.parse("X:1\nT:t\nM:6/8\nL:3/8\nQ:33\nK:C\nC D|\n"));
+		// 49.5 rounds up.
+		assertEquals(50, timeline.getBeatsPerMinute());
+	}
+
+	@Test
+	public void tripletsAndRepeats() throws NoteOutOfBoundsException {
+		Timeline timeline = Timeline.compile(Parser
+				.parse("X:1\nT:t\nM:2/4\nL:1/8\nK:C\n|:(3CDE F2:|\n"));
+		assertEquals(3, timeline.getTicksPerQuarterNote());
+		assertArrayEquals(new long[] { 0, 1, 2, 3, 6, 7, 8, 9 },
+				starts(timeline, 0));
+		assertArrayEquals(new long[] { 1, 1, 1, 3, 1, 1, 1, 3 },
+				lengths(timeline, 0));
+		assertFalse(timeline.isQuantized());
+	}
+
+	@Test
+	public void cappedResolution() throws NoteOutOfBoundsException {
+		Timeline timeline = Timeline.compile(
+				Parser.parse("X:1\nT:t\nM:2/4\nL:1/8\nK:C\n(3CDE F2|\n"), 2);
+		assertEquals(2, timeline.getTicksPerQuarterNote());
+		// Thirds of a tick round to the nearest tick, but a note never
+		// shrinks to nothing.
+		assertArrayEquals(new long[] { 0, 1, 1, 2 }, starts(timeline, 0));
+		assertArrayEquals(new long[] { 1, 1, 1, 2 }, lengths(timeline, 0));
+		assertTrue(timeline.isQuantized());
+		assertEquals(Fraction.valueOf(1, 24), timeline.getQuantizationError());
+	}
+
+	@Test
+	public void voices() throws NoteOutOfBoundsException {
+		Timeline timeline = Timeline.compile(Parser
+				.parse("X:1\nT:t\nM:2/4\nL:1/4\nV:1\nV:2\nK:C\nV:1\nC D|\nV:2\nE/F/ G|\n"));
+		assertEquals(2, timeline.getVoiceCount());
+		assertEquals("1", timeline.getVoiceName(0));
+		assertEquals("2", timeline.getVoiceName(1));
+		assertEquals(2, timeline.getTicksPerQuarterNote());
+		assertArrayEquals(new long[] { 0, 2 }, starts(timeline, 0));
+		assertArrayEquals(new long[] { 0, 1, 2 }, starts(timeline, 1));
+		assertArrayEquals(new long[] { 1, 1, 2 }, lengths(timeline, 1));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void indexPastLastNote() throws NoteOutOfBoundsException {
+		Timeline timeline = Timeline.compile(Parser
+				.parse("X:1\nT:t\nK:C\nC D|\n"));
+		timeline.getStartTick(0, 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noTicks() throws NoteOutOfBoundsException {
+		Timeline.compile(Parser.parse("X:1\nT:t\nK:C\nC D|\n"), 0);
+	}
+}
@@ -1,6 +1,12 @@
 package player;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import utilities.Fraction;
 
@@ -8,13 +14,112 @@ public class Voice implements Iterable<Measure> {
 	public final String name;
 	private Measure firstMeasure;
 
+	/**
+	 * Every Measure of this voice once, in the order they were appended,
+	 * starting with firstMeasure. The Parser keeps it up to date through
+	 * append(); if measures are linked in some other way it is rebuilt from
+	 * the linking structure when next needed.
+	 */
+	private final List<Measure> measures = new ArrayList<Measure>();
+
+	/**
+	 * The order the measures are played in, worked out from the linking
+	 * structure when first needed, or null if it has not been yet.
+	 */
+	private PlaybackOrder playbackOrder;
+
+	/**
+	 * The number of playback orders worked out so far. One is worked out
+	 * after every change, so this counts changes to the voice.
+	 */
+	private int orderCount;
+
+	/**
+	 * Counts changes to measures that have this voice as theirs, i.e. told
+	 * it of every change.
+	 */
+	private int version;
+
+	/**
+	 * The measures of a voice in the order they are played, repeats unrolled,
+	 * with the time each starts at from the start of the voice.
+	 */
+	private static final class PlaybackOrder {
+		final Measure[] measures;
+		final Fraction[] startTimes;
+
+		/**
+		 * Every distinct measure in measures, in the order they are first
+		 * played, and the sum of their modCounts when this order was worked
+		 * out.
+		 */
+		final Measure[] distinct;
+		final int modCount;
+
+		/**
+		 * Whether every distinct measure tells the voice of its changes, in
+		 * which case the voice's version when this order was worked out is
+		 * all there is to check.
+		 */
+		final boolean owned;
+		final int version;
+
+		/**
+		 * The smallest division of the measures, or null until asked for.
+		 */
+		Fraction smallestDivision;
+
+		PlaybackOrder(Voice voice) {
+			List<Measure> measures = new ArrayList<Measure>();
+			List<Fraction> startTimes = new ArrayList<Fraction>();
+			List<Measure> distinct = new ArrayList<Measure>();
+			Set<Measure> seen = Collections
+					.newSetFromMap(new IdentityHashMap<Measure, Boolean>());
+			int modCount = 0;
+			boolean owned = true;
+			if (voice.firstMeasure != null) {
+				Fraction time = Fraction.valueOf(0);
+				for (Measure measure : voice.firstMeasure) {
+					measures.add(measure);
+					startTimes.add(time);
+					time = time.plus(measure.getDuration());
+					if (seen.add(measure)) {
+						distinct.add(measure);
+						modCount += measure.getModCount();
+						if (measure.getVoice() == null)
+							measure.setVoice(voice);
+						owned &= measure.getVoice() == voice;
+					}
+				}
+			}
+			this.measures = measures.toArray(new Measure[measures.size()]);
+			this.startTimes = startTimes.toArray(new Fraction[startTimes.size()]);
+			this.distinct = distinct.toArray(new Measure[distinct.size()]);
+			this.modCount = modCount;
+			this.owned = owned;
+			this.version = voice.version;
+		}
+
+		/**
+		 * @return whether none of the measures has changed since.
+		 */
+		boolean isCurrent(Voice voice) {
+			if (this.owned)
+				return this.version == voice.version;
+			int modCount = 0;
+			for (Measure measure : this.distinct)
+				modCount += measure.getModCount();
+			return modCount == this.modCount;
+		}
+	}
+
 	public Voice(String name) {
 	        this.name = name;
 	}
 	
 	public Voice(String name, Measure firstMeasure) {
 		this.name = name;
-		this.firstMeasure = firstMeasure;
+		this.setStart(firstMeasure);
 	}
 
 	 /**
@@ -22,6 +127,10 @@ public class Voice implements Iterable<Measure> {
      */
     public void setStart(Measure firstMeasure) {
         this.firstMeasure = firstMeasure;
+        this.measures.clear();
+        this.playbackOrder = null;
+        if (firstMeasure != null)
+        	this.measures.add(firstMeasure);
     }
     
 	/**
@@ -31,38 +140,137 @@ public class Voice implements Iterable<Measure> {
 		return firstMeasure;
 	}
 
+	/**
+	 * Records that measure has just been linked in as the next measure of
+	 * the current tail, so it becomes the new tail.
+	 */
+	public void append(Measure measure) {
+		this.measures.add(measure);
+	}
+
 	/**
 	 * @return the last Measure of this voice so far.
 	 */
 	public Measure getEnd() {
-		Iterator<Measure> i = this.iterator();
-		Measure last = null;
-		while (i.hasNext()) {
-			last = i.next();
-		}
-		return last;
+		return this.tail();
 	}
 
+	/**
+	 * @return an iterator over the measures in the order they are played,
+	 *         repeats unrolled.
+	 */
 	public Iterator<Measure> iterator() {
-		return this.getStart().iterator();
+		return Collections.unmodifiableList(
+				Arrays.asList(this.playbackOrder().measures)).iterator();
 	}
 
 	/**
-	 * @return the last measure in this voice.
+	 * @return how many measures are played, counting each time a repeated
+	 *         measure is played.
 	 */
-	public Measure tail() {
-		// TODO: Improve this!
-		Iterator<Measure> iter = this.iterator();
-		Measure last = null;
-		while( iter.hasNext() ) {
-			last = iter.next();		
+	public int getPlayedMeasureCount() {
+		return this.playbackOrder().measures.length;
+	}
+
+	/**
+	 * @return the index-th measure played, from 0.
+	 */
+	public Measure getPlayedMeasure(int index) {
+		return this.playbackOrder().measures[index];
+	}
+
+	/**
+	 * @return the time from the start of the voice at which the index-th
+	 *         measure played starts.
+	 */
+	public Fraction getPlayedStartTime(int index) {
+		return this.playbackOrder().startTimes[index];
+	}
+
+	/**
+	 * Called by a measure that has this voice as its own whenever it changes.
+	 */
+	void measureChanged() {
+		this.version++;
+	}
+
+	/**
+	 * @return the playback order, worked out again if any of its measures
+	 *         has changed since it last was. Measures tell their voice of
+	 *         changes, so checking that costs nothing unless some measure
+	 *         belongs to another voice too, when it is a plain scan of the
+	 *         measures.
+	 */
+	private PlaybackOrder playbackOrder() {
+		PlaybackOrder order = this.playbackOrder;
+		if (order == null || !order.isCurrent(this)) {
+			order = new PlaybackOrder(this);
+			this.playbackOrder = order;
+			this.orderCount++;
 		}
-		return last;
+		return order;
 	}
 
+	/**
+	 * @return a count that goes up whenever the voice changes: its start, or
+	 *         any of its measures, their notes or how they are linked.
+	 */
+	int getModCount() {
+		this.playbackOrder();
+		return this.orderCount;
+	}
+
+	/**
+	 * @return the last measure in this voice, i.e. the one playing ends on,
+	 *         or null if the voice has no measures.
+	 */
+	public Measure tail() {
+		this.sync();
+		if (this.measures.isEmpty())
+			return null;
+		return this.measures.get(this.measures.size() - 1);
+	}
+
+	/**
+	 * @return the number of distinct measures in this voice.
+	 */
+	public int getMeasureCount() {
+		this.sync();
+		return this.measures.size();
+	}
+
+	/**
+	 * @return the index-th measure of this voice, counting each measure once
+	 *         in the order it was appended (i.e. in source order), from 0.
+	 */
+	public Measure getMeasure(int index) {
+		this.sync();
+		return this.measures.get(index);
+	}
+
+	/**
+	 * Rebuilds measures if the linking structure has grown past its tail
+	 * without going through append().
+	 */
+	private void sync() {
+		if (this.firstMeasure == null || this.measures.isEmpty()
+				|| this.measures.get(this.measures.size() - 1).getNext() == null)
+			return;
+		this.measures.clear();
+		this.measures.addAll(Arrays.asList(this.playbackOrder().distinct));
+	}
+
+	/**
+	 * @return the greatest division of which every measure's smallest
+	 *         division is a multiple, or null if there are no measures. It is
+	 *         worked out once and kept until a measure changes.
+	 */
 	public Fraction getSmallestDivision() {
-		Fraction smallestDivision = null;
-		for( Measure measure : this.firstMeasure ) {
+		PlaybackOrder order = this.playbackOrder();
+		Fraction smallestDivision = order.smallestDivision;
+		if (smallestDivision != null)
+			return smallestDivision;
+		for( Measure measure : order.distinct ) {
 			if( smallestDivision == null ) {
 				smallestDivision = measure.getSmallestDivision();
 			}
@@ -70,6 +278,7 @@ public class Voice implements Iterable<Measure> {
 				smallestDivision = Fraction.gcd( smallestDivision, measure.getSmallestDivision() );
 			}
 		}
+		order.smallestDivision = smallestDivision;
 		return smallestDivision;
 	}
 
@@ -0,0 +1,132 @@
+package player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import sound.Pitch;
+import utilities.Fraction;
+
+/**
+ * JUnit testing for Voice.
+ * Strategy: the tail, measure count and indexed measures must agree with
+ * walking the linking structure, whether the measures were appended by the
+ * Parser or linked by hand. The playback order must unroll repeats, and must
+ * follow any later change to the measures' links or notes, and so must the
+ * smallest division.
+ *
+ * @author woursler
+ * @version RC1
+ */
+public class VoiceTest {
+
+	@Test
+	public void parsedVoice() throws NoteOutOfBoundsException {
+		// m0 |: m1 | m2 :| m3 |[1 m4 :|[2 m5 |]
+		Piece piece = Parser.parse("X:1\nT:t\nK:C\nA|:B|c:|d|[1e:|[2f|]\n");
+		Voice voice = piece.getVoices().get(0);
+		assertEquals(7, voice.getMeasureCount());
+		assertSame(voice.getStart(), voice.getMeasure(0));
+		Measure last = null;
+		for (Measure measure : voice)
+			last = measure;
+		assertSame(last, voice.tail());
+		assertSame(last, voice.getEnd());
+		assertSame(last, voice.getMeasure(6));
+		assertSame(voice.getMeasure(1), voice.getMeasure(0).getNext());
+		assertSame(voice.getMeasure(2), voice.getMeasure(1).getNext());
+		assertSame(voice.getMeasure(1), voice.getMeasure(2).getNext());
+		assertSame(voice.getMeasure(3), voice.getMeasure(2).getAlternateNext());
+	}
+
+	@Test
+	public void handLinkedVoice() {
+		// m1 |: m2 | m3 :| m4 |]
+		Measure m1 = new Measure(null);
+		Measure m2 = new Measure(null);
+		Measure m3 = new Measure(null);
+		Measure m4 = new Measure(null);
+		Voice voice = new Voice("v", m1);
+		assertSame(m1, voice.tail());
+		m1.setNext(m2);
+		m2.setNext(m3);
+		m3.setNext(m2);
+		m3.setAlternateNext(m4);
+
+		assertSame(m4, voice.tail());
+		assertEquals(4, voice.getMeasureCount());
+		assertSame(m1, voice.getMeasure(0));
+		assertSame(m2, voice.getMeasure(1));
+		assertSame(m3, voice.getMeasure(2));
+		assertSame(m4, voice.getMeasure(3));
+	}
+
+	@Test
+	public void playbackOrder() throws NoteOutOfBoundsException {
+		// m1 |: m2 | m3 :| m4 |]
+		Measure m1 = new Measure(null);
+		Measure m2 = new Measure(null);
+		Measure m3 = new Measure(null);
+		Measure m4 = new Measure(null);
+		m1.setNext(m2);
+		m2.setNext(m3);
+		m3.setNext(m2);
+		m3.setAlternateNext(m4);
+		m2.addNote(new Note(new Fraction(1, 4), Pitch.of('C')), new Fraction(0));
+		Voice voice = new Voice("v", m1);
+
+		Measure[] played = { m1, m2, m3, m2, m3, m4 };
+		assertEquals(played.length, voice.getPlayedMeasureCount());
+		int index = 0;
+		for (Measure measure : voice) {
+			assertSame(played[index], measure);
+			assertSame(measure, voice.getPlayedMeasure(index));
+			index++;
+		}
+		assertEquals(new Fraction(0), voice.getPlayedStartTime(1));
+		assertEquals(new Fraction(1, 4), voice.getPlayedStartTime(2));
+		assertEquals(new Fraction(1, 2), voice.getPlayedStartTime(5));
+
+		// Changing a note or a link must be seen by the next traversal.
+		m3.addNote(new Note(new Fraction(1, 2), Pitch.of('D')), new Fraction(0));
+		assertEquals(new Fraction(3, 2), voice.getPlayedStartTime(5));
+		m3.setAlternateNext(null);
+		m3.setNext(m4);
+		assertEquals(4, voice.getPlayedMeasureCount());
+		assertSame(m4, voice.getPlayedMeasure(3));
+		assertEquals(new Fraction(3, 4), voice.getPlayedStartTime(3));
+	}
+
+	@Test
+	public void smallestDivisionFollowsChanges() throws NoteOutOfBoundsException {
+		Piece piece = Parser.parse("X:1\nT:t\nL:1/4\nM:4/4\nK:C\nA B|:c d:|\n");
+		Voice voice = piece.getVoices().get(0);
+		Fraction division = voice.getSmallestDivision();
+		assertEquals(new Fraction(1, 4), division);
+		assertSame(division, voice.getSmallestDivision());
+		assertSame(piece.getSmallestDivision(), piece.getSmallestDivision());
+
+		voice.getMeasure(1).addNote(new Note(new Fraction(1, 8), Pitch.of('E')),
+				new Fraction(1, 2));
+		assertEquals(new Fraction(1, 8), voice.getSmallestDivision());
+		assertEquals(new Fraction(1, 8), piece.getSmallestDivision());
+
+		Measure last = voice.tail();
+		Measure extra = new Measure();
+		extra.addNote(new Note(new Fraction(1, 16), Pitch.of('F')), new Fraction(0));
+		last.setNext(extra);
+		assertEquals(new Fraction(1, 16), piece.getSmallestDivision());
+	}
+
+	@Test
+	public void emptyVoice() {
+		Voice voice = new Voice("v");
+		assertNull(voice.tail());
+		assertEquals(0, voice.getMeasureCount());
+		assertEquals(0, voice.getPlayedMeasureCount());
+		assertFalse(voice.iterator().hasNext());
+	}
+}
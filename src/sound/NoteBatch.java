@@ -0,0 +1,218 @@
+package sound;
+
+import java.util.Arrays;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Collects notes to schedule all at once. Adding a note only stores three
+ * numbers; the events that start and end the notes are sorted once, when
+ * they are first asked for, and then go on a track in a single pass, each on
+ * the end, where SequencePlayer.addNote inserts every event into the track
+ * where it belongs.
+ *
+ * Events are in order of tick. At the same tick every note-off comes before
+ * every note-on, so a note that ends as another starts is released first,
+ * except that a note of no ticks is released after it starts, and otherwise
+ * events are in the order their notes were added.
+ *
+ * @author woursler
+ * @version beta
+ */
+public final class NoteBatch {
+
+	private int size;
+	private int[] notes = new int[16];
+	private long[] startTicks = new long[16];
+	private long[] endTicks = new long[16];
+
+	/**
+	 * The events, as the first 2 * size keys, if sorted. Each is its tick,
+	 * then two bits of its kind, OFF, ON or LAST_OFF, then the index of its
+	 * note, in the low orderBits bits.
+	 */
+	private long[] keys = new long[0];
+	private boolean sorted;
+	private int orderBits;
+
+	/**
+	 * The kinds of event, in the order they go at the same tick. A note of
+	 * no ticks ends with a LAST_OFF, so that it ends after it starts.
+	 */
+	private static final long OFF = 0;
+	private static final long ON = 1;
+	private static final long LAST_OFF = 2;
+
+	/**
+	 * Adds the note to be played starting at startTick for the duration of
+	 * numTicks.
+	 *
+	 * @param note
+	 *            the pitch value of the note; must be a valid note
+	 * @param startTick
+	 *            the starting tick; must be >= 0
+	 * @param numTicks
+	 *            the number of ticks the note plays for; must be >= 0
+	 * @return this batch
+	 * @throws IllegalArgumentException
+	 *             if any of these is out of range
+	 */
+	public NoteBatch add(int note, long startTick, long numTicks) {
+		if (note < 0 || note > 127)
+			throw new IllegalArgumentException("No such MIDI note: " + note);
+		if (startTick < 0 || numTicks < 0
+				|| startTick + numTicks < startTick)
+			throw new IllegalArgumentException("Cannot play a note from tick "
+					+ startTick + " for " + numTicks + " ticks");
+		if (this.size == this.notes.length) {
+			int capacity = 2 * this.size;
+			this.notes = Arrays.copyOf(this.notes, capacity);
+			this.startTicks = Arrays.copyOf(this.startTicks, capacity);
+			this.endTicks = Arrays.copyOf(this.endTicks, capacity);
+		}
+		this.notes[this.size] = note;
+		this.startTicks[this.size] = startTick;
+		this.endTicks[this.size] = startTick + numTicks;
+		this.size++;
+		this.sorted = false;
+		return this;
+	}
+
+	/**
+	 * Removes every note, keeping the space they took for the next ones.
+	 *
+	 * @return this batch
+	 */
+	public NoteBatch clear() {
+		this.size = 0;
+		this.sorted = false;
+		return this;
+	}
+
+	/**
+	 * @return the number of notes added.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the number of events, two for each note.
+	 */
+	public int getEventCount() {
+		return 2 * this.size;
+	}
+
+	/**
+	 * @return the tick of the index-th event in order.
+	 */
+	public long getTick(int index) {
+		return this.key(index) >>> (this.orderBits + 2);
+	}
+
+	/**
+	 * @return whether the index-th event in order starts its note rather
+	 *         than ending it.
+	 */
+	public boolean isNoteOn(int index) {
+		return ((this.key(index) >>> this.orderBits) & 3) == ON;
+	}
+
+	/**
+	 * @return where the index-th event in order goes among the events of this
+	 *         or any other batch: by tick, then note-offs, note-ons and the
+	 *         ends of notes of no ticks. Events of different notes may have
+	 *         the same key, and then keep the order of their notes.
+	 */
+	public long getOrderKey(int index) {
+		return this.key(index) >>> this.orderBits;
+	}
+
+	/**
+	 * @return the pitch value of the note of the index-th event in order.
+	 */
+	public int getNote(int index) {
+		return this.notes[(int) (this.key(index) & ((1L << this.orderBits) - 1))];
+	}
+
+	private long key(int index) {
+		if (index < 0 || index >= 2 * this.size)
+			throw new IndexOutOfBoundsException("Event " + index + " of "
+					+ 2 * this.size);
+		return this.sorted()[index];
+	}
+
+	/**
+	 * @return the sort keys of the events, sorting them first if need be.
+	 *         Keys are unique, so sorting them orders the events completely.
+	 * @throws IllegalArgumentException
+	 *             if the ticks are too large to fit in a key beside the index
+	 *             of their note.
+	 */
+	private long[] sorted() {
+		if (this.sorted)
+			return this.keys;
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(this.size - 1, 0));
+		long maxTick = 0;
+		for (int i = 0; i < this.size; i++)
+			maxTick = Math.max(maxTick, this.endTicks[i]);
+		if (maxTick >= (1L << (61 - bits)))
+			throw new IllegalArgumentException("Tick " + maxTick
+					+ " is too large to sort " + this.size + " notes");
+		if (this.keys.length < 2 * this.size)
+			this.keys = new long[2 * this.size];
+		long[] keys = this.keys;
+		for (int i = 0; i < this.size; i++) {
+			long start = this.startTicks[i];
+			long end = this.endTicks[i];
+			keys[2 * i] = (start << (bits + 2)) | (ON << bits) | i;
+			keys[2 * i + 1] = (end << (bits + 2))
+					| ((end == start ? LAST_OFF : OFF) << bits) | i;
+		}
+		Arrays.sort(keys, 0, 2 * this.size);
+		this.orderBits = bits;
+		this.sorted = true;
+		return keys;
+	}
+
+	/**
+	 * @return the events, in order, as new MidiEvents.
+	 */
+	public MidiEvent[] toEvents() {
+		MidiEvent[] events = new MidiEvent[this.getEventCount()];
+		for (int i = 0; i < events.length; i++)
+			events[i] = SequencePlayer.noteEvent(this.isNoteOn(i),
+					this.getNote(i), this.getTick(i));
+		return events;
+	}
+
+	/**
+	 * Adds the events to track, in order. If the track has no events after
+	 * the first of them, each goes straight on the end.
+	 *
+	 * @param track
+	 *            the track to add to
+	 */
+	public void addTo(Track track) {
+		for (int i = 0; i < this.getEventCount(); i++)
+			track.add(SequencePlayer.noteEvent(this.isNoteOn(i),
+					this.getNote(i), this.getTick(i)));
+	}
+
+	/**
+	 * @param ticksPerQuarterNote
+	 *            the number of ticks per quarter note
+	 * @return a new sequence with the events in order on one track.
+	 * @throws InvalidMidiDataException
+	 *             if ticksPerQuarterNote is not a valid resolution
+	 */
+	public Sequence toSequence(int ticksPerQuarterNote)
+			throws InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.PPQ, ticksPerQuarterNote);
+		this.addTo(sequence.createTrack());
+		return sequence;
+	}
+}
@@ -0,0 +1,121 @@
+package sound;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+/**
+ * Test class for NoteBatch
+ *
+ * Testing Strategy:
+ * -Events come out in order of tick, note-offs before note-ons at the same
+ *  tick, but a note of no ticks ends after it starts, and otherwise in the
+ *  order their notes were added
+ * -Order keys put events of different batches in that same order
+ * -The track of a sequence holds the same events in the same order
+ * -Clearing and adding again must sort afresh
+ * -Notes that cannot be played are rejected when added
+ *
+ * @author woursler
+ */
+public class NoteBatchTest {
+
+    private static String events(NoteBatch batch) {
+        StringBuilder events = new StringBuilder();
+        for (int i = 0; i < batch.getEventCount(); i++)
+            events.append(batch.getTick(i)).append(batch.isNoteOn(i) ? " on " : " off ")
+                    .append(batch.getNote(i)).append('\n');
+        return events.toString();
+    }
+
+    @Test
+    public void testOrder() {
+        NoteBatch batch = new NoteBatch();
+        batch.add(60, 0, 2).add(64, 0, 1).add(67, 1, 1).add(62, 2, 0);
+        assertEquals(4, batch.size());
+        assertEquals("0 on 60\n0 on 64\n1 off 64\n1 on 67\n"
+                + "2 off 60\n2 off 67\n2 on 62\n2 off 62\n", events(batch));
+    }
+
+    @Test
+    public void testOrderKeys() {
+        NoteBatch batch = new NoteBatch().add(60, 1, 1).add(62, 2, 0);
+        NoteBatch other = new NoteBatch().add(64, 0, 2).add(65, 2, 1);
+        // 1 on 60, 2 off 60, 2 on 62, 2 off 62
+        assertTrue(batch.getOrderKey(0) < batch.getOrderKey(1));
+        assertTrue(batch.getOrderKey(1) < batch.getOrderKey(2));
+        assertTrue(batch.getOrderKey(2) < batch.getOrderKey(3));
+        // 0 on 64, 2 off 64, 2 on 65, 3 off 65
+        assertEquals(other.getOrderKey(1), batch.getOrderKey(1));
+        assertEquals(other.getOrderKey(2), batch.getOrderKey(2));
+        assertTrue(other.getOrderKey(2) < batch.getOrderKey(3));
+        assertTrue(batch.getOrderKey(3) < other.getOrderKey(3));
+    }
+
+    @Test
+    public void testRandomOrder() {
+        Random random = new Random(23);
+        NoteBatch batch = new NoteBatch();
+        for (int i = 0; i < 2000; i++)
+            batch.add(random.nextInt(128), random.nextInt(500), 1 + random.nextInt(20));
+        for (int i = 1; i < batch.getEventCount(); i++) {
+            long tick = batch.getTick(i - 1);
+            assertTrue(tick <= batch.getTick(i));
+            if (tick == batch.getTick(i))
+                assertFalse(batch.isNoteOn(i - 1) && !batch.isNoteOn(i));
+        }
+    }
+
+    @Test
+    public void testSequence() throws Exception {
+        NoteBatch batch = new NoteBatch().add(60, 4, 4).add(62, 0, 4).add(64, 0, 8);
+        Sequence sequence = batch.toSequence(2);
+        assertEquals(2, sequence.getResolution());
+        Track track = sequence.getTracks()[0];
+        // And the end of track.
+        assertEquals(7, track.size());
+        MidiEvent[] events = batch.toEvents();
+        for (int i = 0; i < events.length; i++) {
+            ShortMessage message = (ShortMessage) track.get(i).getMessage();
+            assertEquals(batch.getTick(i), track.get(i).getTick());
+            assertEquals(batch.getTick(i), events[i].getTick());
+            assertEquals(batch.isNoteOn(i) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF,
+                    message.getCommand());
+            assertEquals(batch.getNote(i), message.getData1());
+            assertArrayEquals(message.getMessage(), events[i].getMessage().getMessage());
+        }
+    }
+
+    @Test
+    public void testClear() {
+        NoteBatch batch = new NoteBatch().add(60, 5, 1);
+        assertEquals(5, batch.getTick(0));
+        batch.clear().add(61, 1, 1);
+        assertEquals(1, batch.size());
+        assertEquals(1, batch.getTick(0));
+        assertEquals(61, batch.getNote(0));
+        assertEquals("", events(batch.clear()));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadNote() {
+        new NoteBatch().add(128, 0, 1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeTick() {
+        new NoteBatch().add(60, -1, 1);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testPastLastEvent() {
+        new NoteBatch().add(60, 0, 1).getTick(2);
+    }
+}
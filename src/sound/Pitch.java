@@ -11,12 +11,21 @@ package sound;
  * makes low C.
  */
 public class Pitch {
-	private final int value;
-	private final int accidental;
-	private final int octave;
+	/**
+	 * Number of pitches in an octave.
+	 */
+	public static final int OCTAVE = 12;
 
 	/*
-	 * Rep invariant: value in {0, 2, 4, 5, 7, 9, 11}
+	 * value, accidental and octave, packed into one int: value in the low
+	 * four bits, then accidental and octave in twelve bits each, biased by
+	 * BIAS so that both are stored as non-negative numbers.
+	 */
+	private final int packed;
+
+	/*
+	 * Rep invariant: value in {0, 2, 4, 5, 7, 9, 11}, accidental and octave
+	 * in [-BIAS, BIAS)
 	 * 
 	 * Abstraction function AF(value, accidental, octave): AF(scale[C], 0, 0),
 	 * AF(scale[D], 0, 0), ..., AF(scale[B], 0, 0) map to middle C, D, E, F, G,
@@ -35,47 +44,140 @@ public class Pitch {
 			7 // G
 	};
 
+	private static final int BIAS = 1 << 11;
+	private static final int FIELD_MASK = (1 << 12) - 1;
+	private static final int ACCIDENTAL_SHIFT = 4;
+	private static final int OCTAVE_SHIFT = 16;
+
+	/*
+	 * Canonical instances for every spelling with at most three sharps or
+	 * flats, in every octave from six below to six above the middle one,
+	 * which covers every MIDI note. Indexed by value, accidental +
+	 * CACHED_ACCIDENTALS and octave + CACHED_OCTAVES.
+	 */
+	private static final int CACHED_ACCIDENTALS = 3;
+	private static final int CACHED_OCTAVES = 6;
+	private static final int ACCIDENTAL_SPAN = 2 * CACHED_ACCIDENTALS + 1;
+	private static final int OCTAVE_SPAN = 2 * CACHED_OCTAVES + 1;
+	private static final Pitch[] cache = new Pitch[OCTAVE * ACCIDENTAL_SPAN
+			* OCTAVE_SPAN];
+	static {
+		for (int value = 0; value < OCTAVE; value++) {
+			if (!isValid(value))
+				continue;
+			for (int accidental = -CACHED_ACCIDENTALS; accidental <= CACHED_ACCIDENTALS; accidental++) {
+				for (int octave = -CACHED_OCTAVES; octave <= CACHED_OCTAVES; octave++) {
+					cache[cacheIndex(value, accidental, octave)] = new Pitch(
+							value, accidental, octave);
+				}
+			}
+		}
+	}
+
+	private static int cacheIndex(int value, int accidental, int octave) {
+		return (value * ACCIDENTAL_SPAN + accidental + CACHED_ACCIDENTALS)
+				* OCTAVE_SPAN + octave + CACHED_OCTAVES;
+	}
+
 	private Pitch(int value, int accidental, int octave) {
-		this.value = value;
-		this.accidental = accidental;
-		this.octave = octave;
+		if (accidental < -BIAS || accidental >= BIAS || octave < -BIAS
+				|| octave >= BIAS)
+			throw new IllegalArgumentException("Pitch is out of range");
+		this.packed = value | (accidental + BIAS) << ACCIDENTAL_SHIFT
+				| (octave + BIAS) << OCTAVE_SHIFT;
 		checkRep();
 	}
 
+	/**
+	 * @return the canonical Pitch for value, accidental and octave, or a new
+	 *         one if there is none.
+	 */
+	private static Pitch of(int value, int accidental, int octave) {
+		if (accidental >= -CACHED_ACCIDENTALS
+				&& accidental <= CACHED_ACCIDENTALS
+				&& octave >= -CACHED_OCTAVES && octave <= CACHED_OCTAVES)
+			return cache[cacheIndex(value, accidental, octave)];
+		return new Pitch(value, accidental, octave);
+	}
+
+	private static int letterValue(char c) {
+		int index = c - 'A';
+		if (index < 0 || index >= scale.length)
+			throw new IllegalArgumentException(c + " must be in the range A-G");
+		return scale[index];
+	}
+
 	/**
 	 * Make a Pitch.
 	 * 
 	 * @param c
 	 *            a note in {'A',...,'G'}
 	 * @return Pitch named c in the middle octave of the piano keyboard. For
-	 *         example, new Pitch('C') constructs middle C.
+	 *         example, new Pitch('C') constructs middle C. Pitch.of(c) is
+	 *         the same pitch without allocating.
 	 */
 	public Pitch(char c) {
-		int index = c - 'A';
-		if (index < 0 || index >= scale.length)
-			throw new IllegalArgumentException(c + " must be in the range A-G");
-
-		this.value = scale[index];
-		this.accidental = 0;
-		this.octave = 0;
-		checkRep();
+		this(letterValue(c), 0, 0);
 	}
 	
 	public Pitch( char c, int semitonesUp ) {
-		int index = c - 'A';
-		if (index < 0 || index >= scale.length)
-			throw new IllegalArgumentException(c + " must be in the range A-G");
+		this(letterValue(c), semitonesUp, 0);
+	}
 
-		this.value = scale[index];
-		this.accidental = semitonesUp;
-		this.octave = 0;
-		checkRep();
+	/**
+	 * @return the Pitch new Pitch(c) would make, shared rather than new.
+	 */
+	public static Pitch of(char c) {
+		return of(letterValue(c), 0, 0);
 	}
 
 	/**
-	 * Number of pitches in an octave.
+	 * @return the Pitch new Pitch(c, semitonesUp) would make, shared rather
+	 *         than new where possible.
 	 */
-	public static final int OCTAVE = 12;
+	public static Pitch of(char c, int semitonesUp) {
+		return of(letterValue(c), semitonesUp, 0);
+	}
+
+	/**
+	 * @return this pitch as a single int. Two pitches are equal iff their
+	 *         packed ints are, so code that handles many pitches can keep
+	 *         these instead of Pitch objects.
+	 */
+	public int toPacked() {
+		return this.packed;
+	}
+
+	/**
+	 * @param packed
+	 *            an int returned by toPacked.
+	 * @return the Pitch it came from, shared rather than new where possible.
+	 */
+	public static Pitch fromPacked(int packed) {
+		return of(value(packed), accidental(packed), octave(packed));
+	}
+
+	/**
+	 * @param packed
+	 *            an int returned by toPacked.
+	 * @return the midi note of the Pitch it came from.
+	 */
+	public static int toMidiNote(int packed) {
+		return value(packed) + accidental(packed) + (OCTAVE * octave(packed))
+				+ 60;
+	}
+
+	private static int value(int packed) {
+		return packed & 0xF;
+	}
+
+	private static int accidental(int packed) {
+		return ((packed >> ACCIDENTAL_SHIFT) & FIELD_MASK) - BIAS;
+	}
+
+	private static int octave(int packed) {
+		return ((packed >> OCTAVE_SHIFT) & FIELD_MASK) - BIAS;
+	}
 
 	/**
 	 * @return pitch made by adding semitonesUp sharps to this pitch, if the
@@ -84,7 +186,8 @@ public class Pitch {
 	 *         transposed by 1 semitone is E sharp.
 	 */
 	public Pitch accidentalTranspose(int semitonesUp) {
-		return new Pitch(value, accidental + semitonesUp, octave);
+		return of(value(packed), accidental(packed) + semitonesUp,
+				octave(packed));
 	}
 
 	/**
@@ -93,7 +196,8 @@ public class Pitch {
 	 *         down by 1 octave produces E, .
 	 */
 	public Pitch octaveTranspose(int octavesUp) {
-		return new Pitch(value, accidental, octave + octavesUp);
+		return of(value(packed), accidental(packed), octave(packed)
+				+ octavesUp);
 	}
 
 	/**
@@ -103,9 +207,9 @@ public class Pitch {
 	 *         by 5 semitones will produce B flat.
 	 */
 	public Pitch transpose(int semitonesUp) {
-		int newValue = value + semitonesUp;
-		int newOctave = octave;
-		int newAccidental = accidental;
+		int newValue = value(packed) + semitonesUp;
+		int newOctave = octave(packed);
+		int newAccidental = accidental(packed);
 
 		while (newValue >= OCTAVE) {
 			newValue -= OCTAVE;
@@ -129,7 +233,7 @@ public class Pitch {
 			}
 		}
 
-		return new Pitch(newValue, newAccidental, newOctave);
+		return of(newValue, newAccidental, newOctave);
 	}
 
 	/**
@@ -145,7 +249,7 @@ public class Pitch {
 	 * @return the midi note of this pitch
 	 */
 	public int toMidiNote() {
-		return this.value + this.accidental + (OCTAVE * this.octave) + 60;
+		return toMidiNote(this.packed);
 	}
 
 	/**
@@ -157,18 +261,18 @@ public class Pitch {
 
 	@Override
 	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
 		if (obj == null)
 			return false;
 		if (obj.getClass() != this.getClass())
 			return false;
-		Pitch that = (Pitch) obj;
-		return this.value == that.value && this.accidental == that.accidental
-				&& this.octave == that.octave;
+		return this.packed == ((Pitch) obj).packed;
 	}
 
 	@Override
 	public int hashCode() {
-		return value + accidental;
+		return packed;
 	}
 
 	/**
@@ -179,9 +283,9 @@ public class Pitch {
 	public String toString() {
 		String suffix = "";
 		String prefix = "";
-		int oct = octave;
-		int acc = accidental;
-		int v = value;
+		int oct = octave(packed);
+		int acc = accidental(packed);
+		int v = value(packed);
 
 		while (oct < 0) {
 			suffix += ",";
@@ -211,7 +315,7 @@ public class Pitch {
 	}
 
 	private void checkRep() {
-		assert isValid(value) : "value should be valid";
+		assert isValid(value(packed)) : "value should be valid";
 	}
 
 	private static final String[] valToString = { "C", null, "D", null, "E",
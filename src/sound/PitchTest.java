@@ -0,0 +1,61 @@
+package sound;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test class for Pitch
+ *
+ * Testing Strategy:
+ * -Pitch.of must give the same pitch as the constructors, shared between calls
+ * -Transposing within the MIDI range must give shared pitches
+ * -Packing a pitch and unpacking it must give an equal pitch, also far
+ *  outside the shared range
+ * -Pitches spelled differently are not equal even if they sound the same
+ *
+ * @author czuo
+ */
+public class PitchTest {
+
+    @Test
+    public void testOfIsShared() {
+        for (char c = 'A'; c <= 'G'; c++) {
+            assertEquals(new Pitch(c), Pitch.of(c));
+            assertSame(Pitch.of(c), Pitch.of(c));
+            assertEquals(new Pitch(c, -2), Pitch.of(c, -2));
+            assertSame(Pitch.of(c, 2), Pitch.of(c, 2));
+        }
+        assertSame(Pitch.of('C').transpose(Pitch.OCTAVE), Pitch.of('C')
+                .octaveTranspose(1));
+        assertSame(Pitch.of('F', 1), Pitch.of('F').accidentalTranspose(1));
+        assertSame(Pitch.of('C').transpose(-60), Pitch.of('C').transpose(-60));
+        assertEquals(0, Pitch.of('C').transpose(-60).toMidiNote());
+        assertSame(Pitch.of('G').transpose(60), Pitch.of('G').transpose(60));
+        assertEquals(127, Pitch.of('G').transpose(60).toMidiNote());
+    }
+
+    @Test
+    public void testPacked() {
+        Pitch[] pitches = { Pitch.of('C'), Pitch.of('B', -3).octaveTranspose(-2),
+                new Pitch('E', 7), Pitch.of('A').octaveTranspose(40),
+                Pitch.of('D').octaveTranspose(-40).accidentalTranspose(-9) };
+        for (Pitch pitch : pitches) {
+            int packed = pitch.toPacked();
+            assertEquals(pitch, Pitch.fromPacked(packed));
+            assertEquals(pitch.toString(), Pitch.fromPacked(packed).toString());
+            assertEquals(pitch.toMidiNote(), Pitch.toMidiNote(packed));
+            assertEquals(pitch.hashCode(), Pitch.fromPacked(packed).hashCode());
+        }
+    }
+
+    @Test
+    public void testSpelling() {
+        assertEquals(Pitch.of('A', 1).toMidiNote(), Pitch.of('B', -1)
+                .toMidiNote());
+        assertFalse(Pitch.of('A', 1).equals(Pitch.of('B', -1)));
+        assertFalse(Pitch.of('A', 1).toPacked() == Pitch.of('B', -1).toPacked());
+        assertEquals("^A", Pitch.of('A', 1).toString());
+        assertEquals("_b'", Pitch.of('B', -1).octaveTranspose(2).toString());
+    }
+}
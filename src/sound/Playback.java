@@ -0,0 +1,212 @@
+package sound;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaEventListener;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+
+/**
+ * A sequence being played by a sequencer, which can be paused, resumed or
+ * cancelled, and waited for. It is done when the sequencer reaches the end
+ * of track, which it announces with a meta event, or when it is cancelled;
+ * either way the sequencer is then stopped, and closed unless it is to be
+ * kept open for the next playback. Nothing polls the sequencer, so a
+ * thread waiting for the end uses no processor time.
+ *
+ * Instances are thread-safe.
+ *
+ * @author woursler
+ * @version beta
+ */
+public final class Playback implements Future<Void> {
+
+	/**
+	 * The type of the meta event that ends a track.
+	 */
+	private static final int END_OF_TRACK = 0x2F;
+
+	private enum State {
+		PLAYING, PAUSED, FINISHED, CANCELLED
+	}
+
+	private final Sequencer sequencer;
+	private final boolean keepOpen;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private State state = State.PLAYING;
+
+	private final MetaEventListener endListener = new MetaEventListener() {
+		public void meta(MetaMessage message) {
+			if (message.getType() == END_OF_TRACK)
+				end(State.FINISHED);
+		}
+	};
+
+	private Playback(Sequencer sequencer, boolean keepOpen) {
+		this.sequencer = sequencer;
+		this.keepOpen = keepOpen;
+	}
+
+	/**
+	 * Opens sequencer, unless it is open already, and starts it playing
+	 * sequence from the beginning.
+	 *
+	 * @param sequencer
+	 *            a sequencer that is not running
+	 * @param sequence
+	 *            the sequence to play. Closing a sequencer may unset its
+	 *            sequence, so it is set again if need be.
+	 * @param beatsPerMinute
+	 *            the tempo to play at, in quarter notes per minute
+	 * @param keepOpen
+	 *            whether to leave sequencer open once done, so the next
+	 *            playback starts at once
+	 * @return the playback, which closes sequencer once it is done unless
+	 *         told to keep it open.
+	 * @throws MidiUnavailableException
+	 *             if the sequencer cannot be opened
+	 * @throws InvalidMidiDataException
+	 *             if the sequencer cannot play sequence
+	 * @throws IllegalStateException
+	 *             if sequencer is already running
+	 */
+	static Playback start(Sequencer sequencer, Sequence sequence,
+			int beatsPerMinute, boolean keepOpen)
+			throws MidiUnavailableException, InvalidMidiDataException {
+		if (sequencer.isRunning())
+			throw new IllegalStateException("The sequencer is already playing.");
+		Playback playback = new Playback(sequencer, keepOpen);
+		if (!sequencer.isOpen())
+			sequencer.open();
+		if (sequencer.getSequence() != sequence)
+			sequencer.setSequence(sequence);
+		sequencer.setTempoInBPM(beatsPerMinute);
+		sequencer.setTickPosition(0);
+		// Listen before starting, so the end cannot come first.
+		sequencer.addMetaEventListener(playback.endListener);
+		sequencer.start();
+		return playback;
+	}
+
+	/**
+	 * Stops playing, where it is, until resume is called.
+	 *
+	 * @return whether playback was playing, and so is now paused.
+	 */
+	public synchronized boolean pause() {
+		if (this.state != State.PLAYING)
+			return false;
+		this.sequencer.stop();
+		this.state = State.PAUSED;
+		return true;
+	}
+
+	/**
+	 * Starts playing again from where pause stopped.
+	 *
+	 * @return whether playback was paused, and so is now playing.
+	 */
+	public synchronized boolean resume() {
+		if (this.state != State.PAUSED)
+			return false;
+		this.state = State.PLAYING;
+		this.sequencer.start();
+		return true;
+	}
+
+	/**
+	 * @return whether playback is paused.
+	 */
+	public synchronized boolean isPaused() {
+		return this.state == State.PAUSED;
+	}
+
+	/**
+	 * Stops playing for good, and closes the sequencer unless it is to be
+	 * kept open.
+	 *
+	 * @param mayInterruptIfRunning
+	 *            ignored; no thread is running the playback
+	 * @return whether playback was not done yet, and so is now cancelled.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return this.end(State.CANCELLED);
+	}
+
+	/**
+	 * Moves to state, which ends playback, unless it has already ended.
+	 *
+	 * @return whether it had not.
+	 */
+	private synchronized boolean end(State state) {
+		if (this.isDone())
+			return false;
+		this.state = state;
+		this.sequencer.removeMetaEventListener(this.endListener);
+		if (this.sequencer.isRunning())
+			this.sequencer.stop();
+		if (!this.keepOpen)
+			this.sequencer.close();
+		this.done.countDown();
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return this.state == State.CANCELLED;
+	}
+
+	public synchronized boolean isDone() {
+		return this.state == State.FINISHED || this.state == State.CANCELLED;
+	}
+
+	/**
+	 * Waits until playback is done, whether it played to the end or was
+	 * cancelled.
+	 *
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted; playback goes on.
+	 */
+	public void await() throws InterruptedException {
+		this.done.await();
+	}
+
+	/**
+	 * Waits until playback has played to the end.
+	 *
+	 * @return null
+	 * @throws CancellationException
+	 *             if playback was cancelled
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted; playback goes on.
+	 */
+	public Void get() throws InterruptedException {
+		this.done.await();
+		return this.result();
+	}
+
+	/**
+	 * As get(), waiting at most timeout.
+	 *
+	 * @throws TimeoutException
+	 *             if playback is still going after timeout
+	 */
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException,
+			TimeoutException {
+		if (!this.done.await(timeout, unit))
+			throw new TimeoutException("Still playing");
+		return this.result();
+	}
+
+	private Void result() {
+		if (this.isCancelled())
+			throw new CancellationException("Playback was cancelled");
+		return null;
+	}
+}
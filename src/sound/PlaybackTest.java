@@ -0,0 +1,139 @@
+package sound;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+
+import org.junit.Test;
+
+/**
+ * Test class for Playback
+ *
+ * Testing Strategy:
+ * -Playing to the end must finish the playback and close the sequencer,
+ *  without the waiting thread using processor time
+ * -A paused playback must hold its place and not finish until resumed
+ * -A cancelled playback must be done at once, and get must say it was
+ *  cancelled
+ * -A sequencer kept open must stay open, and play from the start next time
+ * The sequencers are not connected to a synthesizer, so no sound device is
+ * needed.
+ *
+ * @author woursler
+ */
+public class PlaybackTest {
+
+    /**
+     * @return a sequence of the given number of quarter notes, which last a
+     *         quarter of a second each at 240 per minute
+     */
+    private static Sequence sequence(int quarterNotes) throws Exception {
+        NoteBatch batch = new NoteBatch();
+        for (int i = 0; i < quarterNotes; i++)
+            batch.add(60, i, 1);
+        return batch.toSequence(1);
+    }
+
+    @Test
+    public void testFinish() throws Exception {
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        Sequence sequence = sequence(2);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long started = System.nanoTime();
+        Playback playback = Playback.start(sequencer, sequence, 240, false);
+        assertFalse(playback.isDone());
+        long cpu = threads.getCurrentThreadCpuTime();
+        assertNull(playback.get(5, TimeUnit.SECONDS));
+        cpu = threads.getCurrentThreadCpuTime() - cpu;
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(400));
+        // Half a second of playing, waited for with hardly any processor time.
+        assertTrue("cpu " + cpu, cpu < TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(playback.isDone());
+        assertFalse(playback.isCancelled());
+        assertFalse(sequencer.isOpen());
+        assertFalse(playback.cancel(true));
+        // Playing again starts from the beginning.
+        Playback again = Playback.start(sequencer, sequence, 240, false);
+        again.get(5, TimeUnit.SECONDS);
+        assertFalse(sequencer.isOpen());
+    }
+
+    @Test
+    public void testPause() throws Exception {
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        Sequence sequence = sequence(2);
+        Playback playback = Playback.start(sequencer, sequence, 240, false);
+        assertTrue(playback.pause());
+        assertFalse(playback.pause());
+        assertTrue(playback.isPaused());
+        long position = sequencer.getTickPosition();
+        try {
+            playback.get(700, TimeUnit.MILLISECONDS);
+            fail("A paused playback finished");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertEquals(position, sequencer.getTickPosition());
+        assertTrue(playback.resume());
+        assertFalse(playback.resume());
+        playback.get(5, TimeUnit.SECONDS);
+        assertTrue(playback.isDone());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        Sequence sequence = sequence(40);
+        Playback playback = Playback.start(sequencer, sequence, 240, false);
+        assertTrue(playback.cancel(false));
+        assertTrue(playback.isDone());
+        assertTrue(playback.isCancelled());
+        assertFalse(sequencer.isOpen());
+        assertFalse(playback.resume());
+        playback.await();
+        try {
+            playback.get();
+            fail("A cancelled playback finished");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testKeepOpen() throws Exception {
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        Sequence sequence = sequence(1);
+        Playback playback = Playback.start(sequencer, sequence, 240, true);
+        playback.get(5, TimeUnit.SECONDS);
+        assertTrue(sequencer.isOpen());
+        assertFalse(sequencer.isRunning());
+        long started = System.nanoTime();
+        playback = Playback.start(sequencer, sequence, 240, true);
+        playback.get(5, TimeUnit.SECONDS);
+        // It played from the beginning again.
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertFalse(playback.cancel(true));
+        assertTrue(sequencer.isOpen());
+        sequencer.close();
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testAlreadyPlaying() throws Exception {
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        Sequence sequence = sequence(40);
+        Playback playback = Playback.start(sequencer, sequence, 240, false);
+        try {
+            Playback.start(sequencer, sequence, 240, false);
+        } finally {
+            playback.cancel(true);
+        }
+    }
+}
@@ -17,17 +17,28 @@ import javax.sound.midi.Track;
  */
 public class SequencePlayer {
 
+	/**
+	 * The sequencer, or null until first played or opened, so that building
+	 * a track needs no MIDI device.
+	 */
 	private Sequencer sequencer;
+	private Sequence sequence;
 	private Track track;
 	private int beatsPerMinute;
 
+	/**
+	 * Whether the sequencer stays open between plays, and the last playback
+	 * started, if any.
+	 */
+	private boolean keepOpen;
+	private Playback playback;
+
 	private static int DEFAULT_CHANNEL = 0; // midi channel - for our purpose
 											// always 0
 	private static int DEFAULT_VELOCITY = 100; // the volume
 
 	/*
-	 * Rep invariant: sequencer is non-null, track is non-null, beatsPerMinute
-	 * is positive
+	 * Rep invariant: track is non-null, beatsPerMinute is positive
 	 */
 
 	/**
@@ -41,17 +52,13 @@ public class SequencePlayer {
 	 */
 	public SequencePlayer(int beatsPerMinute, int ticksPerQuarterNote)
 			throws MidiUnavailableException, InvalidMidiDataException {
-		this.sequencer = MidiSystem.getSequencer();
-
 		// Create a sequence object with with tempo-based timing, where
 		// the resolution of the time step is based on ticks per quarter note.
-		Sequence sequence = new Sequence(Sequence.PPQ, ticksPerQuarterNote);
+		this.sequence = new Sequence(Sequence.PPQ, ticksPerQuarterNote);
 		this.beatsPerMinute = beatsPerMinute;
 
 		// Create an empty track. Notes will be added to this track.
-		this.track = sequence.createTrack();
-
-		sequencer.setSequence(sequence);
+		this.track = this.sequence.createTrack();
 
 		checkRep();
 	}
@@ -67,9 +74,50 @@ public class SequencePlayer {
 	 */
 	private void addMidiEvent(int eventType, int note, int tick)
 			throws InvalidMidiDataException {
+		this.track.add(createMidiEvent(eventType, note, tick));
+	}
+
+	private static MidiEvent createMidiEvent(int eventType, int note, long tick)
+			throws InvalidMidiDataException {
 		ShortMessage msg = new ShortMessage();
 		msg.setMessage(eventType, DEFAULT_CHANNEL, note, DEFAULT_VELOCITY);
-		MidiEvent event = new MidiEvent(msg, tick);
+		return new MidiEvent(msg, tick);
+	}
+
+	/**
+	 * Builds the event addNote schedules to start or end a note, without
+	 * adding it to any track. It touches nothing shared, so any thread may
+	 * call it.
+	 * 
+	 * @param on
+	 *            true for the event that starts the note, false for the one
+	 *            that ends it
+	 * @param note
+	 *            the pitch value of the note; must be a valid note
+	 * @param tick
+	 *            the tick of the event; must be >= 0
+	 */
+	public static MidiEvent noteEvent(boolean on, int note, long tick) {
+		try {
+			return createMidiEvent(on ? ShortMessage.NOTE_ON
+					: ShortMessage.NOTE_OFF, note, tick);
+		} catch (InvalidMidiDataException e) {
+			String msg = MessageFormat.format(
+					"Cannot make a note event with the pitch {0} at tick {1}",
+					note, tick);
+			throw new RuntimeException(msg, e);
+		}
+	}
+
+	/**
+	 * Adds an event built by noteEvent to the track. Events at the same tick
+	 * keep the order they are added in. Adding them in order of tick takes
+	 * constant time each.
+	 * 
+	 * @param event
+	 *            the event to add
+	 */
+	public void addEvent(MidiEvent event) {
 		this.track.add(event);
 	}
 
@@ -101,22 +149,93 @@ public class SequencePlayer {
 	}
 
 	/**
-	 * The sequencer is opened to begin playing its track.
+	 * Schedules every note of batch, in the batch's order. This is much
+	 * faster than calling addNote for each, as the batch sorts its events
+	 * once and they go on the end of the track.
+	 *
+	 * @param batch
+	 *            the notes to be played
 	 */
-	public void play() throws MidiUnavailableException {
-		sequencer.open();
-		sequencer.setTempoInBPM(this.beatsPerMinute);
-
-		// start playing!
-		sequencer.start();
+	public void addNotes(NoteBatch batch) {
+		batch.addTo(this.track);
+	}
 
-		// busy-wait until the sequencer stops playing.
-		while (sequencer.isRunning()) {
-			Thread.yield();
+	/**
+	 * The sequencer is opened, if it is not open already, to begin playing
+	 * its track, from the start, and this returns at once.
+	 * 
+	 * @return the playback, to pause, resume, cancel or wait for. The
+	 *         sequencer is closed once it is done, unless open was called.
+	 * @throws IllegalStateException
+	 *             if the last playback is not done
+	 */
+	public synchronized Playback start() throws MidiUnavailableException {
+		if (this.playback != null && !this.playback.isDone())
+			throw new IllegalStateException("The track is already playing.");
+		try {
+			this.playback = Playback.start(this.sequencer(), this.sequence,
+					this.beatsPerMinute, this.keepOpen);
+		} catch (InvalidMidiDataException e) {
+			throw new RuntimeException("Cannot play the track", e);
 		}
+		return this.playback;
+	}
 
-		// when done playing, close the sequencer
-		sequencer.close();
+	/**
+	 * Opens the sequencer now, and keeps it open between plays until close
+	 * is called, so that playing starts at once and the sequencer and its
+	 * synthesizer are only set up once.
+	 */
+	public synchronized void open() throws MidiUnavailableException {
+		Sequencer sequencer = this.sequencer();
+		if (!sequencer.isOpen())
+			sequencer.open();
+		this.keepOpen = true;
+	}
+
+	/**
+	 * Cancels any playback and closes the sequencer. Playing again opens it
+	 * again, and closes it when done.
+	 */
+	public synchronized void close() {
+		this.keepOpen = false;
+		if (this.playback != null)
+			this.playback.cancel(true);
+		if (this.sequencer != null)
+			this.sequencer.close();
+	}
+
+	/**
+	 * @return whether the sequencer is open, i.e. playing, or kept open by
+	 *         open.
+	 */
+	public synchronized boolean isOpen() {
+		return this.sequencer != null && this.sequencer.isOpen();
+	}
+
+	/**
+	 * @return the default sequencer, got the first time it is needed.
+	 */
+	private synchronized Sequencer sequencer()
+			throws MidiUnavailableException {
+		if (this.sequencer == null)
+			this.sequencer = MidiSystem.getSequencer();
+		return this.sequencer;
+	}
+
+	/**
+	 * The sequencer is opened to play its track, and this returns when it is
+	 * done. Waiting takes no processor time. If the calling thread is
+	 * interrupted, playback is cancelled and the thread stays interrupted.
+	 */
+	public void play() throws MidiUnavailableException {
+		Playback playback = this.start();
+		try {
+			playback.await();
+		} catch (InterruptedException e) {
+			playback.cancel(true);
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
@@ -158,7 +277,6 @@ public class SequencePlayer {
 	}
 
 	private void checkRep() {
-		assert sequencer != null : "sequencer should be non-null";
 		assert track != null : "track should be non-null";
 		assert beatsPerMinute >= 0 : "should be positive number of beats per minute";
 	}
@@ -1,5 +1,7 @@
 package utilities;
 
+import java.math.BigInteger;
+
 /**
  * Fraction Instances are immutable objects. They are guaranteed to be in least
  * terms by structural induction. If the fraction is zero ( 0 ), least terms is
@@ -7,91 +9,203 @@ package utilities;
  * undefined form ( n/0 ) is ever attempted, or if the fraction has a negative
  * numerator or denominator (in either simplified or unsimplified form).
  * Invariant: the fraction is always in lowest terms.
- * 
+ *
+ * Numerator and denominator are longs, and arithmetic never overflows
+ * silently: it is done on longs when the intermediate products fit, which is
+ * nearly always, and on BigIntegers when they do not. Only a result that
+ * does not fit in a long in least terms throws an ArithmeticException.
+ *
  * The class if final to ensure that no mutable versions can be made, as this
  * would be disastrous.
- * 
+ *
  * @author woursler and czuo
  * @version beta
  */
-public final class Fraction {
+public final class Fraction implements Comparable<Fraction> {
 
 	/**
-	 * The fraction's numerator. May take on any value, including negative ones.
+	 * The fraction's numerator. May take on any value, including negative
+	 * ones, except Long.MIN_VALUE.
 	 */
-	public final int numerator;
+	public final long numerator;
 	/**
 	 * The fraction's denominator. Must be a strictly positive integer.
 	 */
-	public final int denominator;
+	public final long denominator;
+
+	/**
+	 * Longs in [-SMALL, SMALL) may be multiplied without overflow.
+	 */
+	private static final long SMALL = 1L << 31;
+
+	private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+	/**
+	 * valueOf shares one instance of each fraction in least terms with a
+	 * denominator up to CACHED_DENOMINATORS and a numerator in [0,
+	 * CACHED_NUMERATORS), which covers the note lengths and multipliers the
+	 * parser reads. Entries are made when first asked for. Arithmetic builds
+	 * new fractions, which the JIT can often keep off the heap entirely;
+	 * looking them up here would cost more than it saves.
+	 */
+	private static final int CACHED_DENOMINATORS = 64;
+	private static final int CACHED_NUMERATORS = 256;
+	private static final Fraction[][] CACHE = new Fraction[CACHED_DENOMINATORS + 1][CACHED_NUMERATORS];
 
 	// Static helper methods...
 
 	/**
 	 * Method which finds and returns the greatest common factor of two nonzero
-	 * integers by implementing Euclid's algorithm.
-	 * 
+	 * integers by implementing the binary gcd algorithm, which needs only
+	 * shifts and subtraction.
+	 *
 	 * If one or both of the numbers is negative, it returns the positive common
 	 * factor
-	 * 
+	 *
 	 * @param first
 	 *            - an integer
 	 * @param second
 	 *            - an integer
 	 * @return their greatest common factor
+	 * @throws ArithmeticException
+	 *             if it is 2^63, which does not fit in a long.
 	 */
-	public static int gcd(int first, int second) {
-		if (first < 0 || second < 0) {
-			return gcd(Math.abs(first), Math.abs(second));
+	public static long gcd(long first, long second) {
+		// Math.abs leaves Long.MIN_VALUE alone, but as an unsigned number it
+		// is 2^63, and everything below is unsigned.
+		first = Math.abs(first);
+		second = Math.abs(second);
+		if (first == 0 || second == 0) {
+			long gcd = first | second;
+			if (gcd < 0)
+				throw new ArithmeticException("gcd overflow: 2^63");
+			return gcd;
 		}
-		if (first > second) {
-			if (second == 0) {
-				return first;
-			}
-			return gcd(second, first % second);
-		} else {
-			if (first == 0) {
-				return second;
+		int shift = Long.numberOfTrailingZeros(first | second);
+		first >>>= Long.numberOfTrailingZeros(first);
+		// Both are odd from here on, so less than 2^63.
+		do {
+			second >>>= Long.numberOfTrailingZeros(second);
+			if (first > second) {
+				long swap = first;
+				first = second;
+				second = swap;
 			}
-			return gcd(first, second % first);
-		}
+			second -= first;
+		} while (second != 0);
+		long gcd = first << shift;
+		if (gcd < 0)
+			throw new ArithmeticException("gcd overflow: 2^63");
+		return gcd;
 	}
 
+	/**
+	 * @return the greatest fraction of which both first and second are
+	 *         integer multiples, i.e. the gcd of their numerators over the lcm
+	 *         of their denominators.
+	 */
 	public static Fraction gcd(Fraction first, Fraction second) {
-		// Fraction( 1, first.denominator * second.denominator ) must divide
-		// both. Thus, we seek to find the largest multiple of this fraction that
-		// divides both. This can be accomplished with the **int** gcd function.
-		return new Fraction(Fraction.gcd(first.numerator * second.denominator,
-				second.numerator * first.denominator), first.denominator
-				* second.denominator);
+		// Both are in least terms, so nothing larger than gcd of the
+		// numerators over lcm of the denominators divides both, and that is in
+		// least terms itself.
+		long numerator = gcd(first.numerator, second.numerator);
+		if (numerator == 0)
+			return new Fraction(0);
+		long common = gcd(first.denominator, second.denominator);
+		long scale = second.denominator / common;
+		if (multiplyOverflows(first.denominator, scale))
+			return valueOf(BigInteger.valueOf(numerator), BigInteger
+					.valueOf(first.denominator).multiply(BigInteger.valueOf(scale)));
+		return new Fraction(numerator, first.denominator * scale, true);
 	}
 
 	/**
 	 * Method which finds and returns the LCM of two nonzero integers If one of
 	 * the parameters is negative, returns the positive least common multiple
 	 * Even though the LCM of 0 and another number does not exist, we return 0
-	 * 
+	 *
 	 * @param first
 	 *            - an integer
 	 * @param second
 	 *            - an integer
 	 * @return their least common multiple
+	 * @throws ArithmeticException
+	 *             if it does not fit in a long.
 	 */
-	public static int lcm(int first, int second) {
-		if (gcd(first, second) == 0)
+	public static long lcm(long first, long second) {
+		long gcd = gcd(first, second);
+		if (gcd == 0)
 			return 0;
-		return (Math.abs(first) * Math.abs(second)) / gcd(first, second);
+		return multiply(Math.abs(first) / gcd, Math.abs(second));
+	}
+
+	/**
+	 * @return whether all of a, b, c and d are in [-SMALL, SMALL), so any two
+	 *         may be multiplied and any two such products added.
+	 */
+	static boolean allSmall(long a, long b, long c, long d) {
+		return (((a + SMALL) | (b + SMALL) | (c + SMALL) | (d + SMALL)) >>> 32) == 0;
+	}
+
+	/**
+	 * @return whether a * b does not fit in a long.
+	 */
+	private static boolean multiplyOverflows(long a, long b) {
+		if (a >= -SMALL && a < SMALL && b >= -SMALL && b < SMALL)
+			return false;
+		if (a == 0 || b == 0)
+			return false;
+		long product = a * b;
+		return product / b != a || (a == -1 && b == Long.MIN_VALUE)
+				|| (b == -1 && a == Long.MIN_VALUE);
+	}
+
+	/**
+	 * @return a * b
+	 * @throws ArithmeticException
+	 *             if it does not fit in a long.
+	 */
+	private static long multiply(long a, long b) {
+		if (multiplyOverflows(a, b))
+			throw new ArithmeticException("Fraction overflow: " + a + " * " + b);
+		return a * b;
+	}
+
+	/**
+	 * @return the fraction numerator / denominator in least terms.
+	 * @throws ArithmeticException
+	 *             if that does not fit in longs.
+	 */
+	private static Fraction valueOf(BigInteger numerator, BigInteger denominator) {
+		if (denominator.signum() == 0)
+			throw new FractionValueException("Zero in denominator");
+		if (denominator.signum() < 0) {
+			numerator = numerator.negate();
+			denominator = denominator.negate();
+		}
+		BigInteger gcd = numerator.gcd(denominator);
+		if (gcd.signum() != 0) {
+			numerator = numerator.divide(gcd);
+			denominator = denominator.divide(gcd);
+		}
+		if (numerator.abs().compareTo(MAX_LONG) > 0
+				|| denominator.compareTo(MAX_LONG) > 0)
+			throw new ArithmeticException("Fraction overflow: " + numerator
+					+ " / " + denominator);
+		return new Fraction(numerator.longValue(), denominator.longValue(), true);
 	}
 
 	// Other Methods.
 	/**
-	 * Constructor for a Fraction with a single parameter, int value. The
+	 * Constructor for a Fraction with a single parameter, long value. The
 	 * Fraction is equal to (value / 1); thus in lowest terms.
-	 * 
+	 *
 	 * @param value
 	 *            , the integer value of the fraction.
 	 */
-	public Fraction(int value) {
+	public Fraction(long value) {
+		if (value == Long.MIN_VALUE)
+			throw new ArithmeticException("Fraction overflow: " + value);
 		this.numerator = value;
 		this.denominator = 1;
 	}
@@ -99,12 +213,15 @@ public final class Fraction {
 	/**
 	 * Constructor for a Fraction with two parameters, numerator and
 	 * denominator. The Fraction constructed is in lowest terms.
-	 * 
-	 * @param int numerator, int denominator.
+	 *
+	 * @param long numerator, long denominator.
 	 * @throws FractionValueException
 	 *             if denominator = 0, or if either is negative.
+	 * @throws ArithmeticException
+	 *             if the fraction in least terms does not fit, e.g. it is
+	 *             Long.MIN_VALUE / 1.
 	 */
-	public Fraction(int numerator, int denominator)
+	public Fraction(long numerator, long denominator)
 			throws FractionValueException {
 
 		// Handle a special case where we've been given something invalid.
@@ -119,21 +236,86 @@ public final class Fraction {
 			return;
 		}
 
-		// Store the final sign...
-		boolean isPositive = (numerator * denominator > 0);
+		// Long.MIN_VALUE cannot be negated, so leave it to BigInteger.
+		if (numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE) {
+			Fraction reduced = valueOf(BigInteger.valueOf(numerator),
+					BigInteger.valueOf(denominator));
+			this.numerator = reduced.numerator;
+			this.denominator = reduced.denominator;
+			return;
+		}
 
-		numerator = Math.abs(numerator);
-		denominator = Math.abs(denominator);
+		// Keep the sign in the numerator.
+		if (denominator < 0) {
+			numerator = -numerator;
+			denominator = -denominator;
+		}
 
-		int gcd = gcd(numerator, denominator);
-		// Add back in our sign.
-		if (isPositive)
-			this.numerator = numerator / gcd;
-		else
-			this.numerator = -1 * numerator / gcd;
+		long gcd = gcd(numerator, denominator);
+		this.numerator = numerator / gcd;
 		this.denominator = denominator / gcd;
 	}
 
+	/**
+	 * Constructor for a fraction already in least terms, with a positive
+	 * denominator.
+	 */
+	Fraction(long numerator, long denominator, boolean reduced) {
+		this.numerator = numerator;
+		this.denominator = denominator;
+	}
+
+	/**
+	 * Returns ( numerator / denominator ) in least terms, as the constructor
+	 * does, but shares one instance of each small fraction rather than
+	 * building a new one each time.
+	 *
+	 * @throws FractionValueException
+	 *             if denominator = 0.
+	 * @throws ArithmeticException
+	 *             if the fraction in least terms does not fit.
+	 */
+	public static Fraction valueOf(long numerator, long denominator) {
+		if (denominator < 0 && denominator != Long.MIN_VALUE
+				&& numerator != Long.MIN_VALUE) {
+			numerator = -numerator;
+			denominator = -denominator;
+		}
+		if (denominator > 0 && numerator != Long.MIN_VALUE) {
+			long gcd = gcd(numerator, denominator);
+			return reduced(numerator / gcd, denominator / gcd);
+		}
+		return new Fraction(numerator, denominator);
+	}
+
+	/**
+	 * Returns ( value / 1 ), sharing instances as valueOf(long, long) does.
+	 */
+	public static Fraction valueOf(long value) {
+		return valueOf(value, 1);
+	}
+
+	/**
+	 * As valueOf, for a numerator and positive denominator already in least
+	 * terms.
+	 */
+	private static Fraction reduced(long numerator, long denominator) {
+		if (denominator <= CACHED_DENOMINATORS && numerator >= 0
+				&& numerator < CACHED_NUMERATORS)
+			return cached((int) numerator, (int) denominator);
+		return new Fraction(numerator, denominator, true);
+	}
+
+	private static Fraction cached(int numerator, int denominator) {
+		Fraction[] row = CACHE[denominator];
+		Fraction fraction = row[numerator];
+		// Two threads may both make an entry, but both are equal, and as
+		// every field is final either may be shared safely.
+		if (fraction == null)
+			row[numerator] = fraction = new Fraction(numerator, denominator, true);
+		return fraction;
+	}
+
 	/**
 	 * Returns boolean telling if this Fraction is positive.
 	 */
@@ -145,116 +327,181 @@ public final class Fraction {
 	 * Returns the sum of the current fraction with the other fraction. Note
 	 * that other can never be invalid by construction thus the returned value
 	 * can never be invalid.
-	 * 
+	 *
 	 * @param Fraction
 	 *            other
 	 * @return new Fraction representing the sum of this and other
 	 */
 	public Fraction plus(Fraction other) {
-		try {
-			return new Fraction(this.numerator * other.denominator
-					+ other.numerator * this.denominator, this.denominator
-					* other.denominator);
-		} catch (Exception e) {
-			// This shouldn't happen.
-			return null;
-		}
+		return this.add(other.numerator, other.denominator, false);
 	}
 
 	/**
 	 * Returns the sum of the current fraction with ( other / 1 ).
-	 * 
+	 *
 	 * @param other
 	 *            an int to to add.
 	 * @return The result of the addition.
 	 */
-	public Fraction plus(int other) {
-		return this.plus(new Fraction(other));
+	public Fraction plus(long other) {
+		return this.add(other, 1, false);
 	}
 
 	/**
 	 * Returns the difference of the current fraction with the other fraction.
 	 * Note that other can never be invalid by construction thus the returned
 	 * value can never be invalid.
-	 * 
+	 *
 	 * @param Fraction
 	 *            other
 	 * @return new Fraction representing the sum of this and other
 	 */
 	public Fraction minus(Fraction other) {
-		return this.plus(other.times(-1));
+		return this.add(other.numerator, other.denominator, true);
 	}
 
 	/**
 	 * Returns the difference of the current fraction with ( other / 1 ).
-	 * 
+	 *
 	 * @param other
 	 *            an int to to add.
 	 * @return The result of the addition.
 	 */
-	public Fraction minus(int other) {
-		return this.plus(-1 * other);
+	public Fraction minus(long other) {
+		return this.add(other, 1, true);
+	}
+
+	/**
+	 * @return this plus, or minus if subtract, numerator / denominator, which
+	 *         must be in least terms.
+	 */
+	private Fraction add(long numerator, long denominator, boolean subtract) {
+		if (allSmall(this.numerator, this.denominator, numerator, denominator)) {
+			long first = this.numerator * denominator;
+			long second = numerator * this.denominator;
+			return new Fraction(subtract ? first - second : first + second,
+					this.denominator * denominator);
+		}
+		return this.addLarge(numerator, denominator, subtract);
+	}
+
+	/**
+	 * As add, for operands whose products may not fit in a long.
+	 */
+	private Fraction addLarge(long numerator, long denominator, boolean subtract) {
+		// Work over the lcm of the denominators, which keeps the products
+		// small.
+		long common = gcd(this.denominator, denominator);
+		long thisScale = denominator / common;
+		long otherScale = this.denominator / common;
+		if (!multiplyOverflows(this.numerator, thisScale)
+				&& !multiplyOverflows(numerator, otherScale)
+				&& !multiplyOverflows(this.denominator, thisScale)) {
+			long first = this.numerator * thisScale;
+			long second = numerator * otherScale;
+			long sum = subtract ? first - second : first + second;
+			// Overflow iff the result's sign differs from both operands'.
+			boolean overflow = subtract ? ((first ^ second) & (first ^ sum)) < 0
+					: ((first ^ sum) & (second ^ sum)) < 0;
+			if (!overflow)
+				return new Fraction(sum, this.denominator * thisScale);
+		}
+		BigInteger first = BigInteger.valueOf(this.numerator).multiply(
+				BigInteger.valueOf(thisScale));
+		BigInteger second = BigInteger.valueOf(numerator).multiply(
+				BigInteger.valueOf(otherScale));
+		return valueOf(subtract ? first.subtract(second) : first.add(second),
+				BigInteger.valueOf(this.denominator).multiply(
+						BigInteger.valueOf(thisScale)));
 	}
 
 	/**
 	 * Returns the product of the current fraction and the other fraction. Note
 	 * that other can never invalid by construction thus the returned value can
 	 * never be invalid.
-	 * 
+	 *
 	 * @param other
 	 *            the other Fraction.
 	 * @return new Fraction representing the product of this and other
 	 */
 	public Fraction times(Fraction other) {
-		return new Fraction(this.numerator * other.numerator, this.denominator
-				* other.denominator);
+		return this.multiplyBy(other.numerator, other.denominator);
 	}
 
 	/**
 	 * Returns the product of the current fraction and ( other / 1 ).
-	 * 
+	 *
 	 * @param other
 	 *            an int to to multiply by.
 	 * @return The result of the multiplication.
 	 */
-	public Fraction times(int other) {
-		return this.times(new Fraction(other));
+	public Fraction times(long other) {
+		return this.multiplyBy(other, 1);
+	}
+
+	/**
+	 * @return this times numerator / denominator, which must be in least
+	 *         terms with a positive denominator.
+	 */
+	private Fraction multiplyBy(long numerator, long denominator) {
+		if (allSmall(this.numerator, this.denominator, numerator, denominator))
+			return new Fraction(this.numerator * numerator, this.denominator
+					* denominator);
+		return this.multiplyLarge(numerator, denominator);
+	}
+
+	/**
+	 * As multiplyBy, for operands whose products may not fit in a long.
+	 */
+	private Fraction multiplyLarge(long numerator, long denominator) {
+		// Cancel across first, which keeps the products small.
+		long first = gcd(this.numerator, denominator);
+		long second = gcd(numerator, this.denominator);
+		long a = this.numerator / first;
+		long b = this.denominator / second;
+		long c = numerator / second;
+		long d = denominator / first;
+		if (!multiplyOverflows(a, c) && !multiplyOverflows(b, d))
+			return a == 0 || c == 0 ? new Fraction(0) : new Fraction(a * c, b * d, true);
+		return valueOf(BigInteger.valueOf(a).multiply(BigInteger.valueOf(c)),
+				BigInteger.valueOf(b).multiply(BigInteger.valueOf(d)));
 	}
 
 	/**
 	 * Returns the quotient of the fractions.
-	 * 
+	 *
 	 * @param other
 	 *            a Fraction to to divide by.
 	 * @return The result of the division.
+	 * @throws FractionValueException
+	 *             if other is zero.
 	 */
 	public Fraction quotient(Fraction other) {
-		return new Fraction(this.numerator * other.denominator,
-				this.denominator * other.numerator);
+		return this.times(other.inverse());
 	}
 
 	/**
 	 * Returns the quotient of the current fraction and ( other / 1 ).
-	 * 
+	 *
 	 * @param other
 	 *            an int to to divide by.
 	 * @return The result of the division.
+	 * @throws FractionValueException
+	 *             if other is zero.
 	 */
-	public Fraction quotient(int other) {
-		return new Fraction(this.numerator, this.denominator * other);
+	public Fraction quotient(long other) {
+		return this.quotient(new Fraction(other));
 	}
 
 	/**
 	 * Takes the inverse of this fraction. If the fraction is negative, keeps
 	 * the negative sign in the numerator
-	 * 
+	 *
 	 * @return a new Fraction, the inverse of this Fraction.
 	 * @throws FractionValueException
 	 *             if this fraction is zero.
 	 */
 	public Fraction inverse() throws FractionValueException {
-		if (this.denominator * this.numerator < 0)
-			return new Fraction(-this.denominator, -this.numerator);
 		return new Fraction(this.denominator, this.numerator);
 	}
 
@@ -265,9 +512,57 @@ public final class Fraction {
 		return this.numerator / ((float) this.denominator);
 	}
 
+	/**
+	 * Compares the values of this and other, without allocating.
+	 */
+	public int compareTo(Fraction other) {
+		return compare(this.numerator, this.denominator, other.numerator,
+				other.denominator);
+	}
+
+	/**
+	 * Compares a / b with c / d, where b and d are positive.
+	 */
+	static int compare(long a, long b, long c, long d) {
+		if (!multiplyOverflows(a, d) && !multiplyOverflows(c, b)) {
+			long left = a * d;
+			long right = c * b;
+			return left < right ? -1 : (left == right ? 0 : 1);
+		}
+		// Compare the integer parts, then the remainders. a / b = p + r / b
+		// and c / d = q + s / d with r and s in [0, b) and [0, d), and if
+		// p == q then r / b < s / d iff d / s < b / r, which needs smaller
+		// numbers to compare.
+		while (true) {
+			long p = floorDiv(a, b);
+			long q = floorDiv(c, d);
+			if (p != q)
+				return p < q ? -1 : 1;
+			long r = a - p * b;
+			long s = c - q * d;
+			if (r == 0 || s == 0)
+				return r == s ? 0 : (r == 0 ? -1 : 1);
+			a = d;
+			c = b;
+			b = s;
+			d = r;
+		}
+	}
+
+	/**
+	 * @return a / b rounded down, where b is positive.
+	 */
+	static long floorDiv(long a, long b) {
+		long quotient = a / b;
+		if ((a % b != 0) && ((a < 0) != (b < 0)))
+			quotient--;
+		return quotient;
+	}
+
 	public int hashCode() {
-		return (this.numerator + this.denominator) * this.denominator
+		long hash = (this.numerator + this.denominator) * this.denominator
 				+ this.numerator;
+		return (int) (hash ^ (hash >>> 32));
 	}
 
 	public boolean equals(Object other) {
@@ -281,4 +576,4 @@ public final class Fraction {
 	public String toString() {
 		return "( " + this.numerator + " / " + this.denominator + " )";
 	}
-}
\ No newline at end of file
+}
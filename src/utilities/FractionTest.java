@@ -2,6 +2,9 @@ package utilities;
 
 import static org.junit.Assert.*;
 
+import java.math.BigInteger;
+import java.util.Random;
+
 import org.junit.Test;
 
 /**
@@ -210,4 +213,116 @@ public class FractionTest {
         assertEquals(new Fraction(2,1), new Fraction(2,4).inverse());
         assertEquals(new Fraction(-1,3), new Fraction(3,-1).inverse());
     }
+    
+    /**
+     * Test arithmetic whose intermediate products do not fit in a long
+     * -Should give the exact result when it fits in a long
+     * -Should throw an ArithmeticException when it does not
+     */
+    @Test
+    public void testOverflow(){
+        long big = Long.MAX_VALUE / 3;
+        Fraction third = new Fraction(1, big);
+        assertEquals(new Fraction(2, big), third.plus(third));
+        assertEquals(new Fraction(0), third.minus(third));
+        assertEquals(new Fraction(big - 1, big), new Fraction(big - 1, big).times(new Fraction(big, big - 1)).times(new Fraction(big - 1, big)));
+        assertEquals(new Fraction(Long.MAX_VALUE), new Fraction(Long.MAX_VALUE - 1).plus(1));
+        assertEquals(new Fraction(1, 3L << 61), Fraction.gcd(new Fraction(1, 3L << 60), new Fraction(1, 1L << 61)));
+        assertEquals(new Fraction(1L << 62), new Fraction(Long.MIN_VALUE, -2));
+        assertEquals(new Fraction(-Long.MAX_VALUE), new Fraction(Long.MIN_VALUE, -2).times(-1).minus((1L << 62) - 1));
+        assertEquals(new Fraction(1, 2), new Fraction(Long.MIN_VALUE, Long.MIN_VALUE).quotient(2));
+    }
+    
+    @Test(expected=ArithmeticException.class)
+    public void testOverflowPlus(){
+        new Fraction(Long.MAX_VALUE).plus(1);
+    }
+    
+    @Test(expected=ArithmeticException.class)
+    public void testOverflowTimes(){
+        new Fraction(1, Long.MAX_VALUE).times(new Fraction(1, Long.MAX_VALUE - 1));
+    }
+    
+    @Test(expected=ArithmeticException.class)
+    public void testOverflowMinValue(){
+        new Fraction(Long.MIN_VALUE, 1);
+    }
+    
+    /**
+     * Test compareTo
+     * -Should agree with comparing the exact values, also for huge values
+     * -Should be zero exactly for equal fractions
+     */
+    @Test
+    public void testCompare(){
+        assertTrue(new Fraction(1,3).compareTo(new Fraction(1,2)) < 0);
+        assertTrue(new Fraction(-1,3).compareTo(new Fraction(-1,2)) > 0);
+        assertEquals(0, new Fraction(2,4).compareTo(new Fraction(1,2)));
+        Fraction almostOne = new Fraction(Long.MAX_VALUE - 1, Long.MAX_VALUE);
+        Fraction closer = new Fraction(Long.MAX_VALUE - 2, Long.MAX_VALUE - 1);
+        assertTrue(closer.compareTo(almostOne) < 0);
+        assertTrue(almostOne.compareTo(closer) > 0);
+        Random random = new Random(17);
+        for (int i = 0; i < 10000; i++) {
+            Fraction first = new Fraction(random.nextLong() >> random.nextInt(64), (random.nextLong() >>> random.nextInt(64)) | 1);
+            Fraction second = new Fraction(random.nextLong() >> random.nextInt(64), (random.nextLong() >>> random.nextInt(64)) | 1);
+            BigInteger left = BigInteger.valueOf(first.numerator).multiply(BigInteger.valueOf(second.denominator));
+            BigInteger right = BigInteger.valueOf(second.numerator).multiply(BigInteger.valueOf(first.denominator));
+            assertEquals(first + " " + second, left.compareTo(right), Integer.signum(first.compareTo(second)));
+        }
+    }
+    
+    /**
+     * Test valueOf
+     * -Should equal the constructor's fraction, in least terms
+     * -Should share instances of small fractions, however they are written
+     * -Should still build fractions outside the cache, and reject zero denominators
+     */
+    @Test
+    public void testValueOf(){
+        for (int d = -70; d <= 70; d++) {
+            for (int n = -10; n <= 300; n++) {
+                if (d != 0)
+                    assertEquals(new Fraction(n, d), Fraction.valueOf(n, d));
+            }
+        }
+        assertSame(Fraction.valueOf(1, 2), Fraction.valueOf(2, 4));
+        assertSame(Fraction.valueOf(1, 2), Fraction.valueOf(-32, -64));
+        assertSame(Fraction.valueOf(3), Fraction.valueOf(3, 1));
+        assertSame(Fraction.valueOf(0), Fraction.valueOf(0, 7));
+        assertEquals(Fraction.valueOf(3, 8), new Fraction(1, 8).plus(new Fraction(1, 4)));
+        assertEquals(Fraction.valueOf(1, 12), new Fraction(1, 8).times(new Fraction(2, 3)));
+        assertEquals(new Fraction(1000, 3), Fraction.valueOf(1000, 3));
+        assertEquals(new Fraction(1, 1L << 40), Fraction.valueOf(2, 1L << 41));
+    }
+    
+    @Test(expected=FractionValueException.class)
+    public void testValueOfZeroDenominator(){
+        Fraction.valueOf(1, 0);
+    }
+    
+    /**
+     * Test gcd on longs
+     * -Should agree with BigInteger's gcd, including for huge and negative values
+     * -Should throw only when the gcd is 2^63
+     */
+    @Test
+    public void testLongGCD(){
+        Random random = new Random(5);
+        for (int i = 0; i < 10000; i++) {
+            long first = random.nextLong() >> random.nextInt(64);
+            long second = random.nextLong() >> random.nextInt(64);
+            if (random.nextBoolean())
+                first *= 1L << random.nextInt(8);
+            assertEquals(BigInteger.valueOf(first).gcd(BigInteger.valueOf(second)).longValue(), Fraction.gcd(first, second));
+        }
+        assertEquals(1L << 62, Fraction.gcd(Long.MIN_VALUE, 1L << 62));
+        assertEquals(1, Fraction.gcd(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, Fraction.gcd(0, -Long.MAX_VALUE));
+    }
+    
+    @Test(expected=ArithmeticException.class)
+    public void testLongGCDOverflow(){
+        Fraction.gcd(Long.MIN_VALUE, 0);
+    }
 }
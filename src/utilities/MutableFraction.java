@@ -0,0 +1,214 @@
+package utilities;
+
+/**
+ * A rational number that is changed in place, for loops that would otherwise
+ * build a new Fraction at every step, such as adding up the lengths of the
+ * notes in a measure. Like Fraction it is always in least terms with a
+ * positive denominator, and arithmetic on it never overflows silently: it is
+ * done on longs when the products fit, and through Fraction otherwise.
+ *
+ * Instances are not safe to share. Keep each one in the method or object
+ * that uses it, and hand out toFraction() instead.
+ *
+ * @author woursler and czuo
+ * @version beta
+ */
+public final class MutableFraction implements Comparable<Fraction> {
+
+	private long numerator;
+	private long denominator = 1;
+
+	/**
+	 * Constructs a MutableFraction equal to zero.
+	 */
+	public MutableFraction() {
+	}
+
+	/**
+	 * Constructs a MutableFraction equal to value.
+	 */
+	public MutableFraction(Fraction value) {
+		this.set(value);
+	}
+
+	/**
+	 * @return the numerator, in least terms.
+	 */
+	public long getNumerator() {
+		return this.numerator;
+	}
+
+	/**
+	 * @return the denominator, in least terms. Always positive.
+	 */
+	public long getDenominator() {
+		return this.denominator;
+	}
+
+	/**
+	 * Makes this equal to value.
+	 *
+	 * @return this
+	 */
+	public MutableFraction set(Fraction value) {
+		this.numerator = value.numerator;
+		this.denominator = value.denominator;
+		return this;
+	}
+
+	/**
+	 * Makes this equal to numerator / denominator.
+	 *
+	 * @return this
+	 * @throws FractionValueException
+	 *             if denominator = 0.
+	 */
+	public MutableFraction set(long numerator, long denominator) {
+		if (denominator == 0)
+			throw new FractionValueException("Zero in denominator");
+		if (numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE)
+			return this.set(new Fraction(numerator, denominator));
+		if (denominator < 0) {
+			numerator = -numerator;
+			denominator = -denominator;
+		}
+		long gcd = Fraction.gcd(numerator, denominator);
+		this.numerator = numerator / gcd;
+		this.denominator = denominator / gcd;
+		return this;
+	}
+
+	/**
+	 * Makes this zero.
+	 *
+	 * @return this
+	 */
+	public MutableFraction clear() {
+		this.numerator = 0;
+		this.denominator = 1;
+		return this;
+	}
+
+	/**
+	 * Adds other to this.
+	 *
+	 * @return this
+	 * @throws ArithmeticException
+	 *             if the sum does not fit in longs.
+	 */
+	public MutableFraction add(Fraction other) {
+		return this.add(other.numerator, other.denominator);
+	}
+
+	/**
+	 * Adds numerator / denominator, which must have a positive denominator,
+	 * to this.
+	 *
+	 * @return this
+	 * @throws ArithmeticException
+	 *             if the sum does not fit in longs.
+	 */
+	public MutableFraction add(long numerator, long denominator) {
+		if (Fraction.allSmall(this.numerator, this.denominator, numerator,
+				denominator)) {
+			if (denominator == this.denominator)
+				return this.set(this.numerator + numerator, denominator);
+			return this.set(this.numerator * denominator + numerator
+					* this.denominator, this.denominator * denominator);
+		}
+		return this.set(this.toFraction().plus(
+				new Fraction(numerator, denominator)));
+	}
+
+	/**
+	 * Makes this the greatest fraction of which both this and other are
+	 * integer multiples, as Fraction.gcd does. Zero is a multiple of
+	 * everything, so starting from zero this becomes other.
+	 *
+	 * @return this
+	 */
+	public MutableFraction gcd(Fraction other) {
+		return this.gcd(other.numerator, other.denominator);
+	}
+
+	/**
+	 * As above, for numerator / denominator in least terms with a positive
+	 * denominator.
+	 *
+	 * @return this
+	 */
+	public MutableFraction gcd(long numerator, long denominator) {
+		if (this.numerator == 0)
+			return this.set(Math.abs(numerator), denominator);
+		if (Fraction.allSmall(this.numerator, this.denominator, numerator,
+				denominator)) {
+			long common = Fraction.gcd(this.denominator, denominator);
+			// Both are in least terms, and so is the result.
+			this.numerator = Fraction.gcd(this.numerator, numerator);
+			this.denominator = this.denominator / common * denominator;
+			return this;
+		}
+		return this.set(Fraction.gcd(this.toFraction(), new Fraction(
+				numerator, denominator)));
+	}
+
+	/**
+	 * Compares the values of this and other, without allocating.
+	 */
+	public int compareTo(Fraction other) {
+		return this.compareTo(other.numerator, other.denominator);
+	}
+
+	/**
+	 * Compares the values of this and numerator / denominator, which need not
+	 * be in least terms but must have a positive denominator, without
+	 * allocating.
+	 */
+	public int compareTo(long numerator, long denominator) {
+		return Fraction.compare(this.numerator, this.denominator, numerator,
+				denominator);
+	}
+
+	/**
+	 * @return whether this is greater than zero.
+	 */
+	public boolean isPositive() {
+		return this.numerator > 0;
+	}
+
+	/**
+	 * Converts this to a count of ticks, each division long, rounding down.
+	 *
+	 * @param division
+	 *            the length of a single tick. Must be positive.
+	 * @return the number of whole ticks in this.
+	 * @throws ArithmeticException
+	 *             if there are too many to count in an int.
+	 */
+	public int toTicks(Fraction division) {
+		long ticks;
+		if (Fraction.allSmall(this.numerator, this.denominator,
+				division.numerator, division.denominator)) {
+			ticks = Fraction.floorDiv(this.numerator * division.denominator,
+					this.denominator * division.numerator);
+		} else {
+			Fraction quotient = this.toFraction().quotient(division);
+			ticks = Fraction.floorDiv(quotient.numerator, quotient.denominator);
+		}
+		if (ticks > Integer.MAX_VALUE || ticks < Integer.MIN_VALUE)
+			throw new ArithmeticException("Too many ticks: " + this + " / "
+					+ division);
+		return (int) ticks;
+	}
+
+	/**
+	 * @return a new Fraction equal to this now.
+	 */
+	public Fraction toFraction() {
+		return new Fraction(this.numerator, this.denominator, true);
+	}
+
+	public String toString() {
+		return "( " + this.numerator + " / " + this.denominator + " )";
+	}
+}
@@ -0,0 +1,78 @@
+package utilities;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * MutableFraction test file
+ *
+ * Testing strategy:
+ * -Adding in place must agree with Fraction.plus, and stay in least terms
+ * -gcd in place must agree with Fraction.gcd, starting from zero
+ * -compareTo and toTicks must agree with Fraction, also past the long fast path
+ * -Results that do not fit must throw rather than overflow
+ *
+ * @author kimtoy
+ */
+public class MutableFractionTest {
+
+    @Test
+    public void testAdd(){
+        MutableFraction sum = new MutableFraction();
+        Fraction expected = new Fraction(0);
+        Fraction[] steps = { new Fraction(1,8), new Fraction(1,12), new Fraction(3,8), new Fraction(5,12), new Fraction(-1,3) };
+        for (Fraction step : steps) {
+            sum.add(step);
+            expected = expected.plus(step);
+            assertEquals(expected, sum.toFraction());
+            assertEquals(expected.numerator, sum.getNumerator());
+            assertEquals(expected.denominator, sum.getDenominator());
+        }
+        long big = Long.MAX_VALUE - 1;
+        assertEquals(new Fraction(1, big / 3), new MutableFraction(new Fraction(1, big)).add(new Fraction(2, big)).toFraction());
+        assertEquals(new Fraction(0), sum.clear().toFraction());
+    }
+
+    @Test
+    public void testGCD(){
+        MutableFraction division = new MutableFraction();
+        assertEquals(new Fraction(1,4), division.gcd(new Fraction(1,4)).toFraction());
+        assertEquals(new Fraction(1,12), division.gcd(new Fraction(1,3)).toFraction());
+        assertEquals(new Fraction(1,12), division.gcd(new Fraction(0)).toFraction());
+        assertEquals(Fraction.gcd(new Fraction(1, 3L << 60), new Fraction(1, 1L << 61)),
+                new MutableFraction(new Fraction(1, 3L << 60)).gcd(new Fraction(1, 1L << 61)).toFraction());
+    }
+
+    @Test
+    public void testCompare(){
+        MutableFraction value = new MutableFraction(new Fraction(3,4));
+        assertTrue(value.compareTo(new Fraction(1)) < 0);
+        assertEquals(0, value.compareTo(new Fraction(6,8)));
+        assertEquals(0, value.compareTo(6, 8));
+        assertTrue(value.compareTo(new Fraction(1,2)) > 0);
+        assertTrue(value.isPositive());
+        Fraction almostOne = new Fraction(Long.MAX_VALUE - 1, Long.MAX_VALUE);
+        assertTrue(new MutableFraction(almostOne).compareTo(new Fraction(Long.MAX_VALUE - 2, Long.MAX_VALUE - 1)) > 0);
+    }
+
+    @Test
+    public void testToTicks(){
+        Fraction division = new Fraction(1,48);
+        assertEquals(12, new MutableFraction().set(1,4).toTicks(division));
+        assertEquals(0, new MutableFraction().toTicks(division));
+        assertEquals(1, new MutableFraction().set(1,24).toTicks(new Fraction(1,32)));
+        assertEquals(-2, new MutableFraction().set(-1,24).toTicks(new Fraction(1,32)));
+        assertEquals(3, new MutableFraction().set(3, Long.MAX_VALUE).toTicks(new Fraction(1, Long.MAX_VALUE)));
+    }
+
+    @Test(expected=ArithmeticException.class)
+    public void testTooManyTicks(){
+        new MutableFraction().set(1L << 40, 1).toTicks(new Fraction(1,4));
+    }
+
+    @Test(expected=FractionValueException.class)
+    public void testZeroDenominator(){
+        new MutableFraction().set(1, 0);
+    }
+}